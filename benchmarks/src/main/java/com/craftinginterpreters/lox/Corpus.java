@@ -0,0 +1,29 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+//基准测试使用的Lox程序，放在resources/corpus中，按名字读取
+class Corpus {
+    static String load(String name) {
+        try (InputStream input = Corpus.class.getResourceAsStream("/corpus/" + name + ".lox")) {
+            if (input == null) throw new IllegalArgumentException("No corpus program '" + name + "'.");
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    static List<Token> scan(String name) {
+        return new Scanner(load(name)).scanTokens();
+    }
+
+    static List<Stmt> parse(String name) {//各阶段的基准测试只测量自己的部分，之前的阶段在setup中完成
+        List<Stmt> statements = new Parser(scan(name)).parse();
+        if (Lox.hadError) throw new IllegalStateException("Corpus program '" + name + "' has a syntax error.");
+        return statements;
+    }
+}
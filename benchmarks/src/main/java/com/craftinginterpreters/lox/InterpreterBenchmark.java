@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"fib", "loops", "methods", "instantiation", "strings", "closures", "dispatch"})
+    String program;
+
+    @Param({"true", "false"})
+    boolean optimize;
+
+    private List<Stmt> statements;
+    private Interpreter interpreter;
+
+    @Setup
+    public void setup() {//与Lox.run相同：resolve之后按需经过Optimizer
+        statements = Corpus.parse(program);
+        interpreter = new Interpreter();
+        interpreter.output = OutputSink.DISCARD;//丢弃print的输出，只测量执行
+        new Resolver(interpreter).resolve(statements);
+        if (optimize) statements = new Optimizer().optimize(statements);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (Lox.hadRuntimeError) throw new IllegalStateException("Corpus program '" + program + "' failed at runtime.");
+    }
+
+    @Benchmark
+    public void interpret() {//顶层变量在解释器的全局变量和调用帧中，每次执行时重新定义
+        interpreter.interpret(statements);
+    }
+}
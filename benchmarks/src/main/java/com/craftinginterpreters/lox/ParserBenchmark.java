@@ -0,0 +1,29 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"fib", "loops", "methods", "instantiation", "strings", "closures", "dispatch"})
+    String program;
+
+    private List<Token> tokens;
+
+    @Setup
+    public void setup() {
+        tokens = Corpus.scan(program);
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {//Parser不会修改token列表，可以重复使用
+        return new Parser(tokens).parse();
+    }
+}
@@ -0,0 +1,34 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverBenchmark {
+    @Param({"fib", "loops", "methods", "instantiation", "strings", "closures", "dispatch"})
+    String program;
+
+    private List<Stmt> statements;
+    private Interpreter interpreter;
+
+    @Setup
+    public void setup() {
+        statements = Corpus.parse(program);
+        interpreter = new Interpreter();
+    }
+
+    @Benchmark
+    public void resolve(Blackhole blackhole) {//重复resolve同一棵AST会得到相同的slot，结果覆盖写在节点上
+        Resolver resolver = new Resolver(interpreter);
+        resolver.resolve(statements);
+        blackhole.consume(resolver);
+    }
+}
@@ -0,0 +1,146 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+//统计AST节点个数，供--time-phases报告parse的结果规模
+class AstCounter implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+    int count(List<Stmt> statements) {
+        int count = 0;
+        for (Stmt statement : statements) {
+            count += count(statement);
+        }
+        return count;
+    }
+
+    private int count(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private int count(Expr expr) {
+        return expr == null ? 0 : expr.accept(this);
+    }
+
+    /********************************************* Visit Expression **************************************************/
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+        return 1 + count(expr.value);
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+        int count = 1 + count(expr.callee);
+        for (Expr argument : expr.arguments) {
+            count += count(argument);
+        }
+        return count;
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr) {
+        return 1;
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr) {
+        return 1;
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr) {
+        return 1 + count(expr.object);
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr) {
+        return 1 + count(expr.object) + count(expr.value);
+    }
+
+    @Override
+    public Integer visitLogicExpr(Expr.Logic expr) {
+        return 1 + count(expr.left) + count(expr.right);
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+        return 1 + count(expr.left) + count(expr.right);
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+        return 1 + count(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+        return 1;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+        return 1 + count(expr.right);
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+        return 1;
+    }
+
+    /********************************************* Visit Statement **************************************************/
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt) {
+        int count = 1 + count(stmt.superclass);
+        for (Stmt.Function method : stmt.methods) {
+            count += count(method);
+        }
+        return count;
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+        int count = 1 + count(stmt.condition) + count(stmt.thenBranch);
+        if (stmt.elseBranch != null) count += count(stmt.elseBranch);
+        return count;
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+        return 1 + count(stmt.body);
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+        return 1 + count(stmt.condition) + count(stmt.body);
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+        return 1 + count(stmt.statements);
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+        return 1 + count(stmt.expression);
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+        return 1 + count(stmt.expression);
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+        return 1 + count(stmt.value);
+    }
+
+    @Override
+    public Integer visitBreakStmt(Stmt.Break stmt) {
+        return 1;
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+        return 1 + count(stmt.initializer);
+    }
+}
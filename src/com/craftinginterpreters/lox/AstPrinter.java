@@ -1,11 +1,65 @@
 package com.craftinginterpreters.lox;
 
+import java.util.List;
+
 // Creates an unambiguous, if ugly, string representation of AST nodes.
-class AstPrinter implements Expr.Visitor<String> {
+class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     String print(Expr expr) {
         return expr.accept(this);
     }
 
+    String print(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    String print(List<Stmt> statements) {//--dump-ast使用，每个顶层语句一行
+        StringBuilder builder = new StringBuilder();
+        for (Stmt statement : statements) {
+            builder.append(print(statement)).append("\n");
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String visitAssignExpr(Expr.Assign expr) {
+        return parenthesize("= " + expr.name.lexeme, expr.value);
+    }
+
+    @Override
+    public String visitCallExpr(Expr.Call expr) {
+        Expr[] exprs = new Expr[expr.arguments.size() + 1];//callee之后依次是各个参数
+        exprs[0] = expr.callee;
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            exprs[i + 1] = expr.arguments.get(i);
+        }
+        return parenthesize("call", exprs);
+    }
+
+    @Override
+    public String visitThisExpr(Expr.This expr) {
+        return "this";
+    }
+
+    @Override
+    public String visitSuperExpr(Expr.Super expr) {
+        return "(super " + expr.method.lexeme + ")";
+    }
+
+    @Override
+    public String visitGetExpr(Expr.Get expr) {
+        return parenthesize(". " + expr.name.lexeme, expr.object);
+    }
+
+    @Override
+    public String visitSetExpr(Expr.Set expr) {
+        return parenthesize("= . " + expr.name.lexeme, expr.object, expr.value);
+    }
+
+    @Override
+    public String visitLogicExpr(Expr.Logic expr) {
+        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+    }
+
     @Override
     public String visitBinaryExpr(Expr.Binary expr) {
         return parenthesize(expr.operator.lexeme, expr.left, expr.right);
@@ -28,6 +82,86 @@ class AstPrinter implements Expr.Visitor<String> {
         return parenthesize(expr.operator.lexeme, expr.right);
     }
 
+    @Override
+    public String visitVariableExpr(Expr.Variable expr) {
+        return expr.name.lexeme;
+    }
+
+    /********************************************* Visit Statement **************************************************/
+
+    @Override
+    public String visitClassStmt(Stmt.Class stmt) {
+        StringBuilder builder = new StringBuilder("(class " + stmt.name.lexeme);
+        if (stmt.superclass != null) builder.append(" < ").append(print(stmt.superclass));
+        for (Stmt.Function method : stmt.methods) {
+            builder.append(" ").append(print(method));
+        }
+        return builder.append(")").toString();
+    }
+
+    @Override
+    public String visitIfStmt(Stmt.If stmt) {
+        if (stmt.elseBranch == null) {
+            return "(if " + print(stmt.condition) + " " + print(stmt.thenBranch) + ")";
+        }
+        return "(if-else " + print(stmt.condition) + " " + print(stmt.thenBranch) + " " + print(stmt.elseBranch) + ")";
+    }
+
+    @Override
+    public String visitFunctionStmt(Stmt.Function stmt) {
+        StringBuilder builder = new StringBuilder("(fun " + stmt.name.lexeme + "(");
+        for (int i = 0; i < stmt.params.size(); i++) {
+            if (i > 0) builder.append(" ");
+            builder.append(stmt.params.get(i).lexeme);
+        }
+        builder.append(")");
+        for (Stmt statement : stmt.body) {
+            builder.append(" ").append(print(statement));
+        }
+        return builder.append(")").toString();
+    }
+
+    @Override
+    public String visitWhileStmt(Stmt.While stmt) {
+        return "(while " + print(stmt.condition) + " " + print(stmt.body) + ")";
+    }
+
+    @Override
+    public String visitBlockStmt(Stmt.Block stmt) {
+        StringBuilder builder = new StringBuilder("(block");
+        for (Stmt statement : stmt.statements) {
+            builder.append(" ").append(print(statement));
+        }
+        return builder.append(")").toString();
+    }
+
+    @Override
+    public String visitExpressionStmt(Stmt.Expression stmt) {
+        return parenthesize(";", stmt.expression);
+    }
+
+    @Override
+    public String visitPrintStmt(Stmt.Print stmt) {
+        return parenthesize("print", stmt.expression);
+    }
+
+    @Override
+    public String visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return "(return)";
+        return parenthesize("return", stmt.value);
+    }
+
+    @Override
+    public String visitBreakStmt(Stmt.Break stmt) {
+        return "(break)";
+    }
+
+    @Override
+    public String visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return "(var " + stmt.name.lexeme + ")";
+        return parenthesize("var " + stmt.name.lexeme + " =", stmt.initializer);
+    }
+
     private String parenthesize(String name, Expr... exprs) {
         StringBuilder builder = new StringBuilder();
 
@@ -0,0 +1,244 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+//bench模式：在同一个JVM中依次执行目录下的所有.lox脚本，预热后测量每次完整执行(scan到interpret)的耗时、分配的内存和GC时间，以JSON输出
+//给定baseline时与之前保存的结果比较，平均耗时或分配量增加超过threshold的脚本记为regression；baseline必须是同样的engine和optimize测得的
+class BenchRunner {
+    int warmup = 3;//预热次数，不计入结果
+    int iterations = 10;//测量次数
+    String baseline = null;//之前bench输出的JSON文件
+    double threshold = 10.0;//允许的增长百分比
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+    //一个脚本的测量结果
+    private static class Result {
+        final String name;
+        final double meanMs;
+        final double minMs;
+        final double maxMs;
+        final long allocatedBytes;//每次执行平均分配的字节数
+        final double gcMs;//每次执行平均的GC时间
+        final List<String> regressions = new ArrayList<>();
+        Double baselineMs = null;
+        Double baselineBytes = null;
+
+        Result(String name, double meanMs, double minMs, double maxMs, long allocatedBytes, double gcMs) {
+            this.name = name;
+            this.meanMs = meanMs;
+            this.minMs = minMs;
+            this.maxMs = maxMs;
+            this.allocatedBytes = allocatedBytes;
+            this.gcMs = gcMs;
+        }
+    }
+
+    //返回进程的退出码：脚本有错误时与runFile相同，出现regression时为1，baseline格式不对或engine、optimize与本次不同时为64
+    int run(Path directory, boolean useVm, boolean optimize) throws IOException {
+        Map<String, Object> previous = null;
+        if (baseline != null) {//在测量之前检查，不浪费一次完整的运行
+            try {
+                previous = loadBaseline();
+            } catch (IllegalArgumentException error) {
+                System.err.println("Invalid baseline " + baseline + ": " + error.getMessage());
+                return 64;
+            }
+            String engine = useVm ? "vm" : "interpreter";
+            if (!engine.equals(previous.get("engine")) || !Boolean.valueOf(optimize).equals(previous.get("optimize"))) {
+                System.err.println("Baseline " + baseline + " was measured with engine " + previous.get("engine")
+                        + ", optimize " + previous.get("optimize") + "; this run uses engine " + engine
+                        + ", optimize " + optimize + ".");
+                return 64;
+            }
+        }
+
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(directory)) {
+            scripts = files.filter(path -> path.toString().endsWith(".lox")).sorted().collect(Collectors.toList());
+        }
+        if (scripts.isEmpty()) {
+            System.err.println("No .lox scripts in " + directory + ".");
+            return 66;
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Path script : scripts) {
+            String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+            Result result = measure(script.getFileName().toString(), source, useVm, optimize);
+            if (Lox.hadError || Lox.hadRuntimeError) {
+                System.err.println("Benchmark " + script.getFileName() + " failed.");
+                return Lox.hadError ? 65 : 70;
+            }
+            results.add(result);
+        }
+
+        boolean regressed = previous != null && compare(results, previous);
+        System.out.println(toJson(results, useVm, optimize));
+        for (Result result : results) {
+            if (result.regressions.isEmpty()) continue;
+            System.err.println("Regression in " + result.name + ": " + String.join(", ", result.regressions));
+        }
+        return regressed ? 1 : 0;
+    }
+
+    private Result measure(String name, String source, boolean useVm, boolean optimize) {
+        for (int i = 0; i < warmup; i++) {
+            execute(source, useVm, optimize);
+            if (Lox.hadError || Lox.hadRuntimeError) return null;
+        }
+
+        long thread = Thread.currentThread().getId();
+        double total = 0, min = Double.MAX_VALUE, max = 0;
+        long bytes = 0, gc = 0;
+        for (int i = 0; i < iterations; i++) {
+            long gcBefore = gcMillis();
+            long bytesBefore = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            execute(source, useVm, optimize);
+            double elapsed = (System.nanoTime() - start) / 1e6;
+            bytes += threads.getThreadAllocatedBytes(thread) - bytesBefore;
+            gc += gcMillis() - gcBefore;
+            if (Lox.hadError || Lox.hadRuntimeError) return null;
+
+            total += elapsed;
+            min = Math.min(min, elapsed);
+            max = Math.max(max, elapsed);
+        }
+        return new Result(name, total / iterations, min, max, bytes / iterations, (double) gc / iterations);
+    }
+
+    //每次执行都使用新的Interpreter或VM，与Lox.run相同地经过scan、parse、resolve和可选的optimize，丢弃脚本的print输出
+    private void execute(String source, boolean useVm, boolean optimize) {
+        Interpreter interpreter = new Interpreter();
+        interpreter.output = OutputSink.DISCARD;
+        List<Token> tokens = new Scanner(source).scanTokens();
+        List<Stmt> statements = new Parser(tokens).parse();
+        if (Lox.hadError) return;
+
+        new Resolver(interpreter).resolve(statements);
+        if (Lox.hadError) return;
+
+        if (optimize) statements = new Optimizer().optimize(statements);
+        if (useVm) {
+            VM vm = new VM();
+            vm.output = OutputSink.DISCARD;
+            vm.interpret(statements);
+        } else {
+            interpreter.interpret(statements);
+        }
+    }
+
+    private long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            long time = collector.getCollectionTime();
+            if (time > 0) total += time;//不支持时为-1
+        }
+        return total;
+    }
+
+    //读取失败时抛出IOException，内容不是bench输出的格式时抛出IllegalArgumentException，compare()中不再检查字段的类型
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> loadBaseline() throws IOException {
+        Object json = Json.parse(new String(Files.readAllBytes(Paths.get(baseline)), Charset.defaultCharset()));
+        if (!(json instanceof Map)) throw new IllegalArgumentException("expect an object.");
+        Map<String, Object> run = (Map<String, Object>) json;
+        if (!(run.get("benchmarks") instanceof List)) throw new IllegalArgumentException("expect a 'benchmarks' array.");
+        for (Object entry : (List<Object>) run.get("benchmarks")) {
+            if (!(entry instanceof Map)) throw new IllegalArgumentException("expect each benchmark to be an object.");
+            Map<String, Object> benchmark = (Map<String, Object>) entry;
+            if (!(benchmark.get("name") instanceof String)) {
+                throw new IllegalArgumentException("expect a 'name' string in each benchmark.");
+            }
+            String name = (String) benchmark.get("name");
+            Object wallMs = benchmark.get("wallMs");
+            if (!(wallMs instanceof Map) || !(((Map<String, Object>) wallMs).get("mean") instanceof Number)) {
+                throw new IllegalArgumentException("expect a 'wallMs' object with a numeric 'mean' in " + name + ".");
+            }
+            if (!(benchmark.get("allocatedBytes") instanceof Number)) {
+                throw new IllegalArgumentException("expect a numeric 'allocatedBytes' in " + name + ".");
+            }
+        }
+        return run;
+    }
+
+    //与baseline中同名的脚本比较，返回是否存在regression
+    @SuppressWarnings("unchecked")
+    private boolean compare(List<Result> results, Map<String, Object> previousRun) {
+        boolean regressed = false;
+        List<Object> entries = (List<Object>) previousRun.get("benchmarks");
+        for (Result result : results) {
+            for (Object entry : entries) {
+                Map<String, Object> previous = (Map<String, Object>) entry;
+                if (!result.name.equals(previous.get("name"))) continue;
+                result.baselineMs = ((Number) ((Map<String, Object>) previous.get("wallMs")).get("mean")).doubleValue();
+                result.baselineBytes = ((Number) previous.get("allocatedBytes")).doubleValue();
+                if (change(result.meanMs, result.baselineMs) > threshold) result.regressions.add("wallMs");
+                if (change(result.allocatedBytes, result.baselineBytes) > threshold) result.regressions.add("allocatedBytes");
+                regressed |= !result.regressions.isEmpty();
+            }
+        }
+        return regressed;
+    }
+
+    private static double change(double current, Double previous) {//增长的百分比
+        if (previous == null || previous <= 0) return 0;
+        return (current - previous) / previous * 100;
+    }
+
+    private String toJson(List<Result> results, boolean useVm, boolean optimize) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"engine\": ").append(Json.quote(useVm ? "vm" : "interpreter")).append(",\n");
+        json.append("  \"optimize\": ").append(optimize).append(",\n");
+        json.append("  \"warmup\": ").append(warmup).append(",\n");
+        json.append("  \"iterations\": ").append(iterations).append(",\n");
+        if (baseline != null) {
+            json.append("  \"baseline\": ").append(Json.quote(baseline)).append(",\n");
+            json.append("  \"threshold\": ").append(format(threshold)).append(",\n");
+        }
+        json.append("  \"benchmarks\": [");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"name\": ").append(Json.quote(result.name));
+            json.append(", \"wallMs\": {\"mean\": ").append(format(result.meanMs));
+            json.append(", \"min\": ").append(format(result.minMs));
+            json.append(", \"max\": ").append(format(result.maxMs)).append("}");
+            json.append(", \"allocatedBytes\": ").append(result.allocatedBytes);
+            json.append(", \"gcMs\": ").append(format(result.gcMs));
+            if (result.baselineMs != null) {
+                json.append(", \"baselineWallMs\": ").append(format(result.baselineMs));
+                json.append(", \"wallChange\": ").append(format(change(result.meanMs, result.baselineMs)));
+            }
+            if (result.baselineBytes != null) {
+                json.append(", \"allocatedChange\": ").append(format(change(result.allocatedBytes, result.baselineBytes)));
+            }
+            if (baseline != null) {
+                json.append(", \"regression\": ").append(!result.regressions.isEmpty());
+            }
+            json.append("}");
+        }
+        json.append("\n  ]\n}");
+        return json.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,44 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+//一段编译好的字节码，包括指令、每条指令对应的行号以及常量池
+class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];//与code一一对应，报错时使用
+    int count = 0;
+    final List<Object> constants = new ArrayList<>();
+    Object[] constantPool;//编译结束后由constants生成，VM直接按下标读取
+    private final Map<Object, Integer> valueIndex = new HashMap<>();
+    private final Map<Object, Integer> objectIndex = new IdentityHashMap<>();
+
+    void write(int b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte) b;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value) {//同一个常量只保存一份，数字和字符串按值比较，其他对象按引用比较
+        Map<Object, Integer> index = value instanceof Double || value instanceof String ? valueIndex : objectIndex;
+        Integer existing = index.get(value);
+        if (existing != null) return existing;
+        constants.add(value);
+        index.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    void seal() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constantPool = constants.toArray();
+    }
+}
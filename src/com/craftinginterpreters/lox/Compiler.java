@@ -0,0 +1,593 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//把resolver检查过的AST编译成VM执行的字节码，局部变量放在VM的栈上，被闭包捕获的变量通过upvalue访问
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+
+    private enum FunctionType {
+        SCRIPT, FUNCTION, METHOD, INITIALIZER
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;//true表示捕获外层函数的局部变量，false表示外层函数的upvalue
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    //正在编译的循环，break跳转到循环结束处，跳转位置在循环编译完后统一回填
+    private static class LoopState {
+        final LoopState enclosing;
+        final int scopeDepth;//循环开始时的作用域深度，break需要弹出更深的局部变量
+        final List<Integer> breakJumps = new ArrayList<>();
+
+        LoopState(LoopState enclosing, int scopeDepth) {
+            this.enclosing = enclosing;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    //正在编译的函数，嵌套函数通过enclosing串起来
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VM.Function function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        LoopState loop = null;//break不能跨越函数，每个函数单独记录
+
+        FunctionState(FunctionState enclosing, VM.Function function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            //slot 0在方法中是this，在普通函数中是函数自身，用户代码无法访问
+            locals.add(new Local(type == FunctionType.METHOD || type == FunctionType.INITIALIZER ? "this" : "", 0));
+        }
+    }
+
+    private static class ClassState {
+        final ClassState enclosing;
+        boolean hasSuperclass = false;
+
+        ClassState(ClassState enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private final VM vm;
+    private FunctionState current = null;
+    private ClassState currentClass = null;
+    private int line = 1;//当前生成指令对应的行号
+
+    Compiler(VM vm) {
+        this.vm = vm;
+    }
+
+    VM.Function compile(List<Stmt> statements) {// 外部调用接口
+        current = new FunctionState(null, new VM.Function(null, 0), FunctionType.SCRIPT);
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Expression) {//和Interpreter一样，顶层的expression会打印结果
+                compile(((Stmt.Expression) statement).expression);
+                emit(OpCode.PRINT);
+            } else {
+                compile(statement);
+            }
+        }
+        emitReturn();
+        return endFunction();
+    }
+
+    private void compile(Expr expression) {
+        expression.accept(this);
+    }
+
+    private void compile(Stmt statement) {
+        statement.accept(this);
+    }
+
+    private void compileStatements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+    }
+
+    /********************************************* Emit **************************************************/
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private void emit(int b) {
+        chunk().write(b, line);
+    }
+
+    private void emitShort(int value) {
+        emit((value >> 8) & 0xff);
+        emit(value & 0xff);
+    }
+
+    private void emitWithConstant(byte op, Object value) {
+        emit(op);
+        emitShort(makeConstant(value));
+    }
+
+    private int makeConstant(Object value) {
+        int index = chunk().addConstant(value);
+        if (index > 0xffff) {
+            Lox.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private int emitJump(byte op) {
+        emit(op);
+        emitShort(0xffff);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk().count - offset - 2;
+        if (jump > 0xffff) {
+            Lox.error(line, "Too much code to jump over.");
+        }
+        chunk().code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk().code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP);
+        int offset = chunk().count - loopStart + 2;
+        if (offset > 0xffff) {
+            Lox.error(line, "Loop body too large.");
+        }
+        emitShort(offset);
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(OpCode.GET_LOCAL);//init总是返回this
+            emit(0);
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+    }
+
+    private VM.Function endFunction() {
+        VM.Function function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.seal();
+        current = current.enclosing;
+        return function;
+    }
+
+    /********************************************* Variables **************************************************/
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emit(locals.get(locals.size() - 1).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private void addLocal(Token name) {//新的局部变量对应栈顶的值
+        addLocal(name.lexeme, name);
+    }
+
+    private void addLocal(String name, Token token) {
+        if (current.locals.size() == MAX_LOCALS) {
+            Lox.error(token, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name, Token token) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true, token);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name, token);
+        if (upvalue != -1) {
+            return addUpvalue(state, upvalue, false, token);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal, Token token) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            Lox.error(token, "Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private void namedVariable(Token name, boolean assign) {
+        namedVariable(name.lexeme, name, assign);
+    }
+
+    private void namedVariable(String name, Token token, boolean assign) {//this和super没有对应名字的token，token只用于行号和报错
+        line = token.line;
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            emit(assign ? OpCode.SET_LOCAL : OpCode.GET_LOCAL);
+            emit(arg);
+            return;
+        }
+        arg = resolveUpvalue(current, name, token);
+        if (arg != -1) {
+            emit(assign ? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE);
+            emit(arg);
+            return;
+        }
+        emitWithConstant(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL, vm.globals.cell(token.symbol));//this和super不会是全局变量
+    }
+
+    private void defineVariable(Token name) {//要定义的值已经在栈顶
+        if (current.scopeDepth > 0) {
+            addLocal(name);
+        } else {
+            emitWithConstant(OpCode.DEFINE_GLOBAL, vm.globals.cell(name.symbol));
+        }
+    }
+
+    private void function(Stmt.Function stmt, FunctionType type) {
+        current = new FunctionState(current, new VM.Function(stmt.name.lexeme, stmt.params.size()), type);
+        beginScope();
+        for (Token param : stmt.params) {
+            addLocal(param);
+        }
+        compileStatements(stmt.body);
+        emitReturn();//函数体末尾隐含的return
+
+        List<Upvalue> upvalues = current.upvalues;
+        VM.Function function = endFunction();
+        line = stmt.name.line;
+        emitWithConstant(OpCode.CLOSURE, function);
+        for (Upvalue upvalue : upvalues) {
+            emit(upvalue.isLocal ? 1 : 0);
+            emit(upvalue.index);
+        }
+    }
+
+    /********************************************* Compile Expression **************************************************/
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        namedVariable(expr.name, true);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {//obj.method(args)直接编译成INVOKE，不生成BoundMethod
+            Expr.Get get = (Expr.Get) expr.callee;
+            compile(get.object);
+            compileArguments(expr.arguments);
+            line = expr.paren.line;
+            emitWithConstant(OpCode.INVOKE, get.name.symbol);
+            emit(expr.arguments.size());
+            return null;
+        }
+        if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) expr.callee;
+            namedVariable("this", superExpr.keyword, false);
+            compileArguments(expr.arguments);
+            namedVariable("super", superExpr.keyword, false);
+            line = expr.paren.line;
+            emitWithConstant(OpCode.SUPER_INVOKE, superExpr.method.symbol);
+            emit(expr.arguments.size());
+            return null;
+        }
+        compile(expr.callee);
+        compileArguments(expr.arguments);
+        line = expr.paren.line;
+        emit(OpCode.CALL);
+        emit(expr.arguments.size());
+        return null;
+    }
+
+    private void compileArguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            compile(argument);
+        }
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        namedVariable(expr.keyword, false);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        namedVariable("this", expr.keyword, false);
+        namedVariable("super", expr.keyword, false);
+        line = expr.method.line;
+        emitWithConstant(OpCode.GET_SUPER, expr.method.symbol);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitWithConstant(OpCode.GET_PROPERTY, expr.name.symbol);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emitWithConstant(OpCode.SET_PROPERTY, expr.name.symbol);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicExpr(Expr.Logic expr) {//和Interpreter一样返回真实值而非boolean
+        compile(expr.left);
+        line = expr.operator.line;
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case GREATER: emit(OpCode.GREATER); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL); break;
+            case LESS: emit(OpCode.LESS); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL); break;
+            case MINUS: emit(OpCode.SUBTRACT); break;
+            case PLUS: emit(OpCode.ADD); break;
+            case SLASH: emit(OpCode.DIVIDE); break;
+            case STAR: emit(OpCode.MULTIPLY); break;
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL); break;
+            default: break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value == Boolean.TRUE) {
+            emit(OpCode.TRUE);
+        } else if (expr.value == Boolean.FALSE) {
+            emit(OpCode.FALSE);
+        } else {
+            emitWithConstant(OpCode.CONSTANT, expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        emit(expr.operator.type == TokenType.BANG ? OpCode.NOT : OpCode.NEGATE);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        namedVariable(expr.name, false);
+        return null;
+    }
+
+    /********************************************* Compile Statement **************************************************/
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        int nameConstant = makeConstant(stmt.name.lexeme);
+        //局部的类就是CLASS指令压入栈的值；全局的类先作为不可见的局部变量留在栈上，INHERIT检查过父类并且方法都加入之后才定义
+        boolean global = current.scopeDepth == 0;
+        if (global) beginScope();
+        String className = global ? "class" : stmt.name.lexeme;//class是关键字，不会与变量重名
+        addLocal(className, stmt.name);
+        emit(OpCode.CLASS);
+        emitShort(nameConstant);
+
+        ClassState classState = new ClassState(currentClass);
+        currentClass = classState;
+
+        if (stmt.superclass != null) {//super作为一个局部变量，方法通过upvalue捕获它
+            namedVariable(stmt.superclass.name, false);
+            beginScope();
+            addLocal("super", stmt.superclass.name);
+            namedVariable(className, stmt.name, false);
+            emit(OpCode.INHERIT);
+            classState.hasSuperclass = true;
+        }
+
+        namedVariable(className, stmt.name, false);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.symbol == LoxClass.INIT ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method, type);
+            emitWithConstant(OpCode.METHOD, method.name.symbol);
+        }
+        emit(OpCode.POP);
+
+        if (classState.hasSuperclass) endScope();
+        currentClass = currentClass.enclosing;
+        if (global) {//栈顶就是类，DEFINE_GLOBAL把它弹出
+            line = stmt.name.line;
+            emitWithConstant(OpCode.DEFINE_GLOBAL, vm.globals.cell(stmt.name.symbol));
+            current.scopeDepth--;
+            current.locals.remove(current.locals.size() - 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emit(OpCode.POP);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        if (current.scopeDepth > 0) {
+            addLocal(stmt.name);//先声明再编译函数体，使局部函数可以递归调用自身
+            function(stmt, FunctionType.FUNCTION);
+        } else {
+            function(stmt, FunctionType.FUNCTION);
+            emitWithConstant(OpCode.DEFINE_GLOBAL, vm.globals.cell(stmt.name.symbol));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        LoopState loop = new LoopState(current.loop, current.scopeDepth);
+        current.loop = loop;
+        int loopStart = chunk().count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        for (int jump : loop.breakJumps) {//break时条件值已经弹出，直接跳到条件的POP之后
+            patchJump(jump);
+        }
+        current.loop = loop.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        compileStatements(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emitReturn();
+        } else {
+            compile(stmt.value);
+            emit(OpCode.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        line = stmt.keyword.line;
+        //弹出循环内声明的局部变量，但不从locals中删除，break之后的代码在编译期仍处于这些作用域中
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1; i >= 0 && locals.get(i).depth > current.loop.scopeDepth; i--) {
+            emit(locals.get(i).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+        current.loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL);
+        }
+        defineVariable(stmt.name);
+        return null;
+    }
+}
@@ -42,6 +42,12 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+
+        // Resolution.
+        Storage storage = Storage.GLOBAL;
+        int slot;
+        Globals.Cell global;
+        Stmt.Var target;
     }
 
     static class Call extends Expr {
@@ -72,6 +78,10 @@ abstract class Expr {
         }
 
         final Token keyword;
+
+        // Resolution.
+        Storage storage = Storage.LOCAL;
+        int slot;
     }
 
     static class Super extends Expr {
@@ -87,6 +97,15 @@ abstract class Expr {
 
         final Token keyword;
         final Token method;
+
+        // Resolution.
+        Storage storage = Storage.UPVALUE;
+        int slot;
+        This receiver;
+
+        // Runtime cache.
+        LoxClass cachedClass;
+        LoxFunction cachedMethod;
     }
 
     static class Get extends Expr {
@@ -102,6 +121,11 @@ abstract class Expr {
 
         final Expr object;
         final Token name;
+
+        // Runtime cache.
+        Shape shape;
+        int offset;
+        LoxFunction method;
     }
 
     static class Set extends Expr {
@@ -119,6 +143,11 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+
+        // Runtime cache.
+        Shape shape;
+        Shape transition;
+        int offset;
     }
 
     static class Logic extends Expr {
@@ -153,6 +182,9 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+
+        // Runtime cache.
+        Specialization specialization = Specialization.UNINITIALIZED;
     }
 
     static class Grouping extends Expr {
@@ -207,6 +239,11 @@ abstract class Expr {
         }
 
         final Token name;
+
+        // Resolution.
+        Storage storage = Storage.GLOBAL;
+        int slot;
+        Globals.Cell global;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//全局变量表，每个全局变量名只对应一个Cell，resolver在解析时把Variable/Assign节点直接绑定到Cell上，运行时不再按名字查找
+class Globals {
+    static class Cell {
+        final String name;
+        Object value;
+        boolean defined = false;//引用可以先于声明被解析，此时Cell已存在但变量尚未定义
+
+        Cell(String name) {
+            this.name = name;
+        }
+
+        Object get(Token name) {
+            if (value != null) return value;
+            if (defined) {//只有取到null时才需要区分未赋值和未定义
+                throw new RuntimeError(name, "Unassigned variable '" + name.lexeme + "'.");
+            }
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+
+        void assign(Token name, Object value) {
+            if (!defined) {
+                throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+            }
+            this.value = value;
+        }
+
+        void define(Object value) {// 不检查变量是否已经存在，直接赋值
+            this.value = value;
+            this.defined = true;
+        }
+    }
+
+    private final Map<Symbol, Cell> cells = new HashMap<>();
+
+    Cell cell(Symbol name) {//第一次解析到某个名字时为其新建Cell，之后都返回同一个
+        Cell cell = cells.get(name);
+        if (cell == null) {
+            cell = new Cell(name.name);
+            cells.put(name, cell);
+        }
+        return cell;
+    }
+
+    void define(Symbol name, Object value) {
+        cell(name).define(value);
+    }
+
+    void define(String name, Object value) {//定义native函数
+        define(Symbol.intern(name), value);
+    }
+}
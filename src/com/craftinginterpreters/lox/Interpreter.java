@@ -3,6 +3,7 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import com.craftinginterpreters.lox.Expr.*;
@@ -10,11 +11,20 @@ import com.craftinginterpreters.lox.Stmt.*;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类implement Expr&Stmt 类中定义的visitor接口
     //全局环境
-    final Environment globals = new Environment();
-    private Environment environment = globals;//当前运行的环境
-    private final Map<Expr, Integer> locals = new HashMap<>();//管理当前的局部变量 通过local中的distance，从变量最近一次被声明/赋值的env中进行取值，包含variable和this
-                                                            // Question：env不是一脉相承的吗，为什么要搞这么麻烦？Ans：在进入block后新建的env内无数据的复制，想要查找enclsing内的数据需要一个distance
-                                                            //Question：这里为什么要用Expr而不是String？Ans：String可能存在重名?
+    final Globals globals = new Globals();
+    OutputSink output = OutputSink.STDOUT;//print的输出目标，嵌入时可以替换
+    private Object[] frame = new Object[0];//当前函数的调用帧，存放resolver分配了slot的局部变量；顶层代码中block的变量放在顶层帧中
+    private UpvalueCell[] upvalues = new UpvalueCell[0];//当前函数闭包捕获的变量
+    //return和break不再抛出异常，而是记录语句的完成方式，由block和循环在每条语句后检查
+    private enum Completion {
+        NORMAL, BREAK, RETURN
+    }
+    private Completion completion = Completion.NORMAL;
+    private Object returnValue = null;//completion为RETURN时的返回值
+    private int callDepth = 0;//当前嵌套的Lox调用层数，尾调用不计入
+    Profiler profiler = null;//--profile时记录Lox调用的影子栈，为null时不记录
+    //局部变量的distance和slot由resolver直接写在Variable/Assign/This/Super节点上，通过distance从变量最近一次被声明/赋值的env中进行取值
+    // Question：env不是一脉相承的吗，为什么要搞这么麻烦？Ans：在进入block后新建的env内无数据的复制，想要查找enclsing内的数据需要一个distance
 
     //构造函数，在globals中加入一个名为clock的函数对象，在构造函数中的函数称为natives functions 即内建函数
     Interpreter() {
@@ -41,8 +51,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
         try{
             for(Stmt statement : statements){
                 if(statement instanceof Stmt.Expression){//实现prompt中当输入的代码为expression时可以打印结果
-                    Object value = evaluate(statement.expression);
-                    System.out.println(stringify(value));
+                    Object value = evaluate(((Stmt.Expression) statement).expression);
+                    output.println(stringify(value));
                 }
                 else execute(statement);
             }
@@ -61,33 +71,68 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
         statement.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    void reserveFrame(int size) {//resolver确定顶层代码需要的slot数
+        if (size > frame.length) frame = Arrays.copyOf(frame, size);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
-        } 
-        return globals.get(name);
+    private void define(Token name, int slot, boolean captured, Object value) {//slot为-1时是全局变量
+        if (slot < 0) {
+            globals.define(name.symbol, value);
+        } else if (captured) {//每次执行声明都新建cell，循环中创建的闭包各自捕获不同的变量
+            frame[slot] = new UpvalueCell(value);
+        } else {
+            frame[slot] = value;
+        }
+    }
+
+    private void initialize(int slot, boolean captured, Object value) {//给已经define过的局部变量赋初值
+        if (captured) ((UpvalueCell) frame[slot]).value = value;
+        else frame[slot] = value;
+    }
+
+    private Object load(Storage storage, int slot) {
+        switch (storage) {
+            case LOCAL: return frame[slot];
+            case CELL: return ((UpvalueCell) frame[slot]).value;
+            default: return upvalues[slot].value;
+        }
+    }
+
+    private void store(Storage storage, int slot, Object value) {
+        switch (storage) {
+            case LOCAL: frame[slot] = value; break;
+            case CELL: ((UpvalueCell) frame[slot]).value = value; break;
+            default: upvalues[slot].value = value; break;
+        }
+    }
+
+    UpvalueCell[] capture(Stmt.Function declaration) {//按resolver给出的描述从当前调用帧和闭包中取出新函数要捕获的cell
+        UpvalueCell[] captured = new UpvalueCell[declaration.upvalueIndexes.length];
+        for (int i = 0; i < captured.length; i++) {
+            int index = declaration.upvalueIndexes[i];
+            captured[i] = declaration.upvalueIsLocal[i] ? (UpvalueCell) frame[index] : upvalues[index];
+        }
+        return captured;
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {//VM也使用同样的规则
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
     
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
+        if (a == b) return true;//nil和nil、同一个对象，以及Scanner中共用同一个String的字符串字面量
         // nil is only equal to nil.
-        if (a == null && b == null) return true;
-        if (a == null) return false;
+        if (a == null || b == null) return false;
+        if (a instanceof CharSequence && b instanceof CharSequence) {//String和Rope按内容比较
+            return Rope.equal((CharSequence) a, (CharSequence) b);
+        }
     
         return a.equals(b);
     }
 
-    private String stringify(Object object) {//将objecr转化为string对象输出
+    static String stringify(Object object) {//将objecr转化为string对象输出
         if (object == null)
             return "nil";
 
@@ -108,7 +153,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double)
             return;
 
@@ -120,12 +165,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
     @Override
     public Object visitAssignExpr(Assign expr) {
         Object value = evaluate(expr.value);
-        Token name = expr.name;
-        Integer distance = locals.get(expr);
-        if(distance!=null){
-            environment.assignAt(distance, name, value);
+        if(expr.storage == Storage.GLOBAL){//resolver已经绑定了全局变量的Cell
+            expr.global.assign(expr.name, value);
         }
-        else environment.assign(name,value);
+        else store(expr.storage, expr.slot, value);
         //assignment is an expression that can be nested inside other expressions 如 print a=2; //2
         return value;
     }
@@ -158,7 +201,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
 
     @Override
     public Object visitVariableExpr(Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        if (expr.storage == Storage.GLOBAL) return expr.global.get(expr.name);
+        return load(expr.storage, expr.slot);
     }
 
     @Override
@@ -180,7 +224,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
                 return !isTruthy(right); //直接return了所以不用break
             case MINUS:
                 checkNumberOperand(expr.operator, right);
-                return -(double) right;
+                return NumberCache.box(-(double) right);
             default: break;
         }
 
@@ -190,21 +234,81 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
 
     @Override
     public Object visitCallExpr(Call expr) {
-        Object callee = evaluate(expr.callee);//在environment中寻找function对象
+        return call(expr, false);
+    }
+
+    //tail为true时（return f(x);）不在此处执行LoxFunction，而是返回TailCall交给外层LoxFunction.invoke的循环执行，Java栈不随尾调用增长
+    private Object call(Call expr, boolean tail) {
+        LoxCallable function;
+        LoxInstance receiver = null;
+        if (expr.callee instanceof Get) {//obj.method(args)直接调用方法，不创建绑定了instance的LoxFunction
+            Get get = (Get) expr.callee;
+            Object instance = evaluate(get.object);
+            if (!(instance instanceof LoxInstance)) {
+                throw new RuntimeError(get.name, "Only instances have properties.");
+            }
+            LoxInstance object = (LoxInstance) instance;
+            lookupProperty(get, object);
+            if (get.offset >= 0) {//同名字段优先于方法，字段中保存的可调用对象按普通调用处理
+                function = callable(object.fields[get.offset], expr);
+            } else {
+                function = get.method;//在计算参数之前取出，参数中的同一Get节点可能改写缓存
+                receiver = object;//instance直接作为this传入
+            }
+        } else {
+            function = callable(evaluate(expr.callee), expr);//在environment中寻找function对象
+        }
+        List<Object> arguments = evaluateArguments(expr);
+        checkArity(function, arguments, expr.paren);
+        if (tail && function instanceof LoxFunction) {
+            return new TailCall((LoxFunction) function, receiver, arguments, expr.paren.line);
+        }
+        if (callDepth == Lox.maxCallDepth) {//Lox调用栈有上限，超出时报告运行时错误而不是让Java栈溢出
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        }
+        callDepth++;
+        if (profiler != null) profiler.enter(frameName(function), expr.paren.line);
+        try {
+            if (receiver != null) return ((LoxFunction) function).invoke(this, receiver, arguments);
+            return function.call(this, arguments);//真正执行
+        } catch (RuntimeError error) {//错误经过时记录这一层调用，正常执行时没有开销
+            error.addFrame(error.function != null ? error.function : frameName(function), expr.paren.line);
+            throw error;
+        } catch (StackOverflowError error) {//单层调用嵌套极深的表达式时线程栈仍可能先于上限耗尽
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        } finally {
+            callDepth--;
+            if (profiler != null) profiler.exit();
+        }
+    }
+
+    private static String frameName(LoxCallable function) {//profiler和错误调用栈中的帧名：函数和方法为其名字，调用类时为类名
+        if (function instanceof LoxFunction) return ((LoxFunction) function).declaration.name.lexeme;
+        if (function instanceof LoxClass) return ((LoxClass) function).name;
+        return function.toString();
+    }
+
+    private LoxCallable callable(Object callee, Call expr) {
         if (!(callee instanceof LoxCallable)) {// 运行时检查并抛出Exception
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
+        return (LoxCallable) callee;
+    }
+
+    private List<Object> evaluateArguments(Call expr) {
         List<Object> arguments = new ArrayList<>();//argument是实际传入的Object
         for (Expr argument : expr.arguments) {
             arguments.add(evaluate(argument));
         }
+        return arguments;
+    }
+
+    private void checkArity(LoxCallable function, List<Object> arguments, Token paren) {
         //检查参数数量是否匹配，TODO 4.有什么方式可以避免检查参数数量？Smalltalk语言为什么没有这种问题？
-        LoxCallable function = (LoxCallable) callee;
         if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren,
+            throw new RuntimeError(paren,
                     "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
-        return function.call(this, arguments);//真正执行
     }
 
     @Override
@@ -212,7 +316,23 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
         Object instance = evaluate(expr.object);
         if (instance instanceof LoxInstance) {// 运行时检查并抛出Exception
             Object value = evaluate(expr.value);
-            ((LoxInstance)instance).set(expr.name,value);
+            LoxInstance object = (LoxInstance) instance;
+            if (object.shape == expr.shape) {//命中inline cache，不需要查找字段名
+                int offset = expr.transition == null ? expr.offset : object.addField(expr.transition);
+                object.fields[offset] = value;
+                return value;
+            }
+            Shape before = object.shape;
+            int offset = before.offsetOf(expr.name.symbol);
+            if (offset < 0) {
+                offset = object.addField(before.withField(expr.name.symbol));
+                expr.transition = object.shape;
+            } else {
+                expr.transition = null;
+            }
+            object.fields[offset] = value;
+            expr.shape = before;
+            expr.offset = offset;
             return value;
         }
         throw new RuntimeError(expr.name, "Only instances have properties.");
@@ -222,69 +342,211 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
     public Object visitGetExpr(Get expr) {
         Object instance = evaluate(expr.object);
         if (instance instanceof LoxInstance) {// 运行时检查并抛出Exception
-            return ((LoxInstance)instance).get(expr.name);
+            LoxInstance object = (LoxInstance) instance;
+            lookupProperty(expr, object);
+            if (expr.offset >= 0) return object.fields[expr.offset];
+            return expr.method.bind(object);//方法作为值离开时才需要绑定instance
         }
         throw new RuntimeError(expr.name, "Only instances have properties.");
     }
 
+    private void lookupProperty(Get expr, LoxInstance object) {//保证expr的inline cache对应object的Shape，字段下标为-1时method有效
+        if (object.shape == expr.shape) return;//命中inline cache，Shape相同则字段下标和类都相同
+        int offset = object.shape.offsetOf(expr.name.symbol);
+        if (offset >= 0) {
+            expr.shape = object.shape;
+            expr.offset = offset;
+            expr.method = null;
+            return;
+        }
+        LoxFunction method = object.klass.findMethod(expr.name.symbol);
+        if (method == null) {
+            throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+        }
+        expr.shape = object.shape;
+        expr.offset = -1;
+        expr.method = method;
+    }
+
     @Override
     public Object visitThisExpr(This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return load(expr.storage, expr.slot);
     }
 
     @Override
     public Object visitSuperExpr(Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
-        // "this" is always one level nearer than "super"'s environment.实例化调用class的init方法，传入的参数为带有全局环境的interpreter，该方法的env为含super的环境
-        LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");//method内的super只有在实例化时才会被调用，故此时一定有一个instance
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
-        if (method == null) {
-            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+        LoxClass superclass = (LoxClass) load(expr.storage, expr.slot);//super是方法捕获的upvalue
+        LoxInstance object = (LoxInstance) visitThisExpr(expr.receiver);//method内的super只有在实例化时才会被调用，故此时一定有一个instance
+        LoxFunction method;
+        if (superclass == expr.cachedClass) {//同一处super几乎总是指向同一个父类，命中时直接复用上次解析的方法
+            method = expr.cachedMethod;
+        } else {
+            method = superclass.findMethod(expr.method.symbol);
+            if (method == null) {
+                throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+            }
+            expr.cachedClass = superclass;
+            expr.cachedMethod = method;
         }
         return method.bind(object);
     }
 
     @Override
     public Object visitBinaryExpr(Binary expr) {
+        //数值专用路径不先装箱计算两个操作数，而是通过evaluateNumber直接得到double，只在结果离开时装箱一次
+        switch (expr.specialization) {
+            case NUMBER_ADD:
+            case NUMBER_SUBTRACT:
+            case NUMBER_MULTIPLY:
+            case NUMBER_DIVIDE:
+                try {
+                    return NumberCache.box(numberArithmetic(expr));
+                } catch (UnexpectedResult result) {
+                    return result.value;
+                }
+            case NUMBER_GREATER:
+            case NUMBER_GREATER_EQUAL:
+            case NUMBER_LESS:
+            case NUMBER_LESS_EQUAL:
+                return numberComparison(expr);
+            default: break;
+        }
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        //专用路径只需要检查操作数类型是否和之前观察到的一致
+        switch (expr.specialization) {
+            case STRING_CONCAT:
+                if (left instanceof CharSequence && right instanceof CharSequence) {
+                    return Rope.concat((CharSequence) left, (CharSequence) right);
+                }
+                expr.specialization = Specialization.GENERIC;//类型猜测失败，之后一直走通用路径
+                return binary(expr.operator, left, right);
+            case UNINITIALIZED://第一次执行，根据操作数类型选择之后使用的路径
+                expr.specialization = Specialization.of(expr.operator.type, left, right);
+                return binary(expr.operator, left, right);
+            default:
+                return binary(expr.operator, left, right);
+        }
+    }
+
+    //以double的形式计算表达式，数值专用的Binary、数字字面量和取负不会产生中间的Double对象
+    private double evaluateNumber(Expr expr) {
+        if (expr instanceof Binary) {
+            Binary binary = (Binary) expr;
+            switch (binary.specialization) {
+                case NUMBER_ADD:
+                case NUMBER_SUBTRACT:
+                case NUMBER_MULTIPLY:
+                case NUMBER_DIVIDE:
+                    return numberArithmetic(binary);
+                default: break;
+            }
+        } else if (expr instanceof Literal) {
+            if (((Literal) expr).value instanceof Double) return (double) ((Literal) expr).value;
+        } else if (expr instanceof Grouping) {
+            return evaluateNumber(((Grouping) expr).expression);
+        } else if (expr instanceof Unary && ((Unary) expr).operator.type == TokenType.MINUS) {
+            Unary unary = (Unary) expr;
+            try {
+                return -evaluateNumber(unary.right);
+            } catch (UnexpectedResult result) {
+                throw new RuntimeError(unary.operator, "Operand must be a number.");
+            }
+        }
+        Object value = evaluate(expr);
+        if (value instanceof Double) return (double) value;
+        throw new UnexpectedResult(value);
+    }
+
+    private double numberArithmetic(Binary expr) {
+        double left;
+        try {
+            left = evaluateNumber(expr.left);
+        } catch (UnexpectedResult result) {//猜测失败，用已经算出的左值退回通用路径
+            expr.specialization = Specialization.GENERIC;
+            return expectNumber(binary(expr.operator, result.value, evaluate(expr.right)));
+        }
+        double right;
+        try {
+            right = evaluateNumber(expr.right);
+        } catch (UnexpectedResult result) {
+            expr.specialization = Specialization.GENERIC;
+            return expectNumber(binary(expr.operator, left, result.value));
+        }
+        switch (expr.operator.type) {
+            case PLUS: return left + right;
+            case MINUS: return left - right;
+            case STAR: return left * right;
+            default: return left / right;
+        }
+    }
+
+    private Object numberComparison(Binary expr) {
+        double left;
+        try {
+            left = evaluateNumber(expr.left);
+        } catch (UnexpectedResult result) {
+            expr.specialization = Specialization.GENERIC;
+            return binary(expr.operator, result.value, evaluate(expr.right));
+        }
+        double right;
+        try {
+            right = evaluateNumber(expr.right);
+        } catch (UnexpectedResult result) {
+            expr.specialization = Specialization.GENERIC;
+            return binary(expr.operator, left, result.value);
+        }
+        switch (expr.operator.type) {
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            default: return left <= right;
+        }
+    }
+
+    private double expectNumber(Object value) {//通用路径算出的值不是数字时(如字符串拼接)交给上一层处理
+        if (value instanceof Double) return (double) value;
+        throw new UnexpectedResult(value);
+    }
+
+    static Object binary(Token operator, Object left, Object right) {//Optimizer折叠常量时也使用，保证结果和运行时一致
         /*
         TODO 1.增加不同类型的比较
              2.增加number和数字的相加
              3.增加➗0的处理
         */
-        switch (expr.operator.type) {
+        switch (operator.type) {
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left > (double) right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left >= (double) right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left < (double) right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left <= (double)right;
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left - (double) right;
+                checkNumberOperands(operator, left, right);
+                return NumberCache.box((double) left - (double) right);
             case PLUS://string和number都有plus操作 #TODO 2.增加数字+字符串自动转化为字符串的功能
                 if (left instanceof Double && right instanceof Double) {
-                  return (double)left + (double)right;
+                  return NumberCache.box((double)left + (double)right);
                 } 
-                if (left instanceof String && right instanceof String) {
-                  return (String)left + (String)right;
+                if (left instanceof CharSequence && right instanceof CharSequence) {//String或Rope
+                  return Rope.concat((CharSequence) left, (CharSequence) right);
                 }
-                throw new RuntimeError(expr.operator,
+                throw new RuntimeError(operator,
                     "Operands must be two numbers or two strings.");
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left / (double) right;
+                checkNumberOperands(operator, left, right);
+                return NumberCache.box((double) left / (double) right);
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
+                checkNumberOperands(operator, left, right);
+                return NumberCache.box((double) left * (double) right);
             case BANG_EQUAL: return !isEqual(left, right);
             case EQUAL_EQUAL: return isEqual(left, right);
             default: break;
@@ -305,53 +567,44 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
                 throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
             }
         }
-        environment.define(stmt.name.lexeme, null);
+        define(stmt.name, stmt.slot, stmt.captured, null);//先声明，方法中可以引用类自身
 
-        if (stmt.superclass != null) {//存在继承则新建一个env在其中定义super，该env对应class的内部，外部无法使用super 
-                                    //Question: 为什么this没有这个需求？Ans: 因为这里class的定义需要用到外部环境中的superclass，类似执行block的过程，而普通的class定义是完全不涉及到对env的交互的，包括this的使用
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+        if (stmt.superclass != null) {//存在继承则把super放进一个cell，由各个方法捕获，外部无法使用super 
+                                    //Question: 为什么this没有这个需求？Ans: this在每次调用方法时才确定，放在方法自身调用帧的slot 0
+            frame[stmt.superSlot] = new UpvalueCell(superclass);
         }
 
-        Map<String, LoxFunction> methods = new HashMap<>();
+        Map<Symbol, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));//这里多个instance的func不是同名了吗？Ans: LoxFunction是一个接口对象，此处的method不同于func，是定义在class的filed内的而非env
-            methods.put(method.name.lexeme, function);
+            LoxFunction function = new LoxFunction(method, capture(method), method.name.symbol == LoxClass.INIT);//这里多个instance的func不是同名了吗？Ans: LoxFunction是一个接口对象，此处的method不同于func，是定义在class的filed内的而非env
+            methods.put(method.name.symbol, function);
         }
         LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass,methods);
         
-        if (superclass != null) {//回退到上一个env
-            environment = environment.enclosing;
-        }
-        environment.assign(stmt.name, klass);
+        if (stmt.slot < 0) globals.define(stmt.name.symbol, klass);
+        else initialize(stmt.slot, stmt.captured, klass);
         return null;
     }
     
     @Override
     public Void visitFunctionStmt(Function stmt) {//此处并非调用函数，而是定义函数的过程，将函数对象新增到环境中
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+        define(stmt.name, stmt.slot, stmt.captured, null);//先声明再创建闭包，递归的局部函数捕获的是自己的cell
+        LoxFunction function = new LoxFunction(stmt, capture(stmt), false);
+        if (stmt.slot < 0) globals.define(stmt.name.symbol, function);
+        else initialize(stmt.slot, stmt.captured, function);
         return null;
     }
 
     @Override
     public Void visitBlockStmt(Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));//执行block时需要新建一个env
+        executeBlock(stmt.statements);//block中的变量已由resolver放进当前调用帧
         return null;
     }
 
-    public void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;//储存当前Interpreter的env
-        try{
-            this.environment = environment;//用新的env覆盖当前的Interpreter的env
-            for(Stmt statement : statements){
-                //TODO 3.处理break的情况
-                execute(statement);
-            }
-        } catch (RuntimeError error){
-            Lox.runtimeError(error);
-        } finally {
-            this.environment = previous;//恢复之前的env
+    void executeBlock(List<Stmt> statements) {//运行时错误不在这里报告，一直传播到interpret
+        for(Stmt statement : statements){
+            execute(statement);
+            if (completion != Completion.NORMAL) break;//return或break跳过block中剩余的语句
         }
     }
 
@@ -370,6 +623,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
     public Void visitWhileStmt(While stmt) {
         while(isTruthy(evaluate(stmt.condition))){
             execute(stmt.body);
+            if (completion != Completion.NORMAL) {
+                if (completion == Completion.BREAK) completion = Completion.NORMAL;//break在最近的循环处结束，return继续向外传递
+                break;
+            }
         }
         return null;
     }
@@ -383,17 +640,44 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
     @Override
     public Void visitPrintStmt(Print stmt){
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        output.println(stringify(value));
         return null;
     }
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         Object value  = null;
-        if(stmt.value!=null){
+        if (stmt.value instanceof Call) {//尾调用，由LoxFunction.invoke继续执行
+            value = call((Call) stmt.value, true);
+        } else if(stmt.value!=null){
             value = evaluate(stmt.value);
         }
-        throw new Return(value);//使用runtimeException来跳出当前的block
+        returnValue = value;
+        completion = Completion.RETURN;
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        completion = Completion.BREAK;
+        return null;
+    }
+
+    Object executeBody(List<Stmt> body, Object[] frame, UpvalueCell[] upvalues) {//在新的调用帧中执行函数体并取出返回值，没有return时为null
+        Object[] previousFrame = this.frame;
+        UpvalueCell[] previousUpvalues = this.upvalues;
+        try {
+            this.frame = frame;
+            this.upvalues = upvalues;
+            executeBlock(body);
+        } finally {
+            this.frame = previousFrame;//恢复调用者的帧
+            this.upvalues = previousUpvalues;
+        }
+        Object value = returnValue;
+        completion = Completion.NORMAL;
+        returnValue = null;
+        return value;
     }
 
     @Override
@@ -407,7 +691,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {//该类i
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        define(stmt.name, stmt.slot, stmt.captured, value);
         return null;
     }
 
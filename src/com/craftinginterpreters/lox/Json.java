@@ -0,0 +1,151 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//bench模式读写结果用的最小JSON实现：object对应Map，array对应List，数值统一为Double
+class Json {
+    private final String source;
+    private int current = 0;
+
+    private Json(String source) {
+        this.source = source;
+    }
+
+    static Object parse(String source) {
+        Json json = new Json(source);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.current != source.length()) throw json.error("Unexpected trailing characters.");
+        return value;
+    }
+
+    static String quote(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < 0x20) builder.append(String.format("\\u%04x", (int) c));
+                    else builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (current >= source.length()) throw error("Unexpected end of input.");
+        char c = source.charAt(current);
+        switch (c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", true);
+            case 'f': return literal("false", false);
+            case 'n': return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return number();
+                throw error("Unexpected character '" + c + "'.");
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        current++;//跳过{
+        skipWhitespace();
+        if (match('}')) return object;
+        do {
+            skipWhitespace();
+            if (current >= source.length() || source.charAt(current) != '"') throw error("Expect string key.");
+            String key = string();
+            skipWhitespace();
+            if (!match(':')) throw error("Expect ':' after key.");
+            object.put(key, value());
+            skipWhitespace();
+        } while (match(','));
+        if (!match('}')) throw error("Expect '}' after object.");
+        return object;
+    }
+
+    private List<Object> array() {
+        List<Object> array = new ArrayList<>();
+        current++;//跳过[
+        skipWhitespace();
+        if (match(']')) return array;
+        do {
+            array.add(value());
+            skipWhitespace();
+        } while (match(','));
+        if (!match(']')) throw error("Expect ']' after array.");
+        return array;
+    }
+
+    private String string() {
+        StringBuilder builder = new StringBuilder();
+        current++;//跳过开头的"
+        while (current < source.length()) {
+            char c = source.charAt(current++);
+            if (c == '"') return builder.toString();
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (current >= source.length()) break;
+            char escape = source.charAt(current++);
+            switch (escape) {
+                case 'n': builder.append('\n'); break;
+                case 'r': builder.append('\r'); break;
+                case 't': builder.append('\t'); break;
+                case 'b': builder.append('\b'); break;
+                case 'f': builder.append('\f'); break;
+                case 'u':
+                    if (current + 4 > source.length()) throw error("Invalid unicode escape.");
+                    builder.append((char) Integer.parseInt(source.substring(current, current + 4), 16));
+                    current += 4;
+                    break;
+                default: builder.append(escape); break;//\" \\ \/
+            }
+        }
+        throw error("Unterminated string.");
+    }
+
+    private Double number() {
+        int start = current;
+        while (current < source.length() && "+-0123456789.eE".indexOf(source.charAt(current)) >= 0) current++;
+        try {
+            return Double.parseDouble(source.substring(start, current));
+        } catch (NumberFormatException e) {
+            throw error("Invalid number.");
+        }
+    }
+
+    private Object literal(String text, Object value) {
+        if (!source.startsWith(text, current)) throw error("Unexpected character '" + source.charAt(current) + "'.");
+        current += text.length();
+        return value;
+    }
+
+    private boolean match(char expected) {
+        if (current < source.length() && source.charAt(current) == expected) {
+            current++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (current < source.length() && Character.isWhitespace(source.charAt(current))) current++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " [offset " + current + "]");
+    }
+}
@@ -3,32 +3,193 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Lox {
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
     private static final Interpreter interpreter = new Interpreter();
+    private static VM vm = null;//使用--vm时由字节码虚拟机代替Interpreter执行
+    private static boolean optimize = true;//--no-optimize时跳过Optimizer，直接执行resolve后的AST
+    private static boolean stream = false;//--stream时边读边执行，每个顶层声明解析完成后立即resolve并执行
+    private static boolean dumpTokens = false;//--dump-tokens：输出scanner得到的全部token
+    private static boolean dumpAst = false;//--dump-ast：输出即将执行的AST（经过optimizer）
+    private static boolean timePhases = false;//--time-phases：在stderr报告各阶段的耗时、分配的字节数以及token和节点个数
+    private static Profiler profiler = null;//--profile=<file>：采样Lox调用栈，结束时把collapsed stacks写入profilePath
+    private static String profilePath = null;
+    static int maxCallDepth = 100000;//Lox函数调用的最大嵌套层数，Interpreter和VM共用，可通过--max-depth=<n>设置
+    private static final int MAX_CALL_DEPTH = 10_000_000;//--max-depth的上限
+    private static final long STACK_BYTES_PER_CALL = 8192;//Interpreter中一层Lox调用大约占用的Java栈空间，留有余量
+    private static final long MAX_STACK_BYTES = 1L << 30;//lox线程栈的上限；更深的递归由Interpreter捕获StackOverflowError报告Stack overflow
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {// 报错
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {// 输入路径执行文件
-            runFile(args[0]);
-        } else {// 在终端中读取命令执行
-            runPrompt();
+        String script = null;
+        BenchRunner bench = null;//bench模式时script为存放基准测试脚本的目录
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                vm = new VM();
+            } else if (arg.equals("--no-optimize")) {
+                optimize = false;
+            } else if (arg.equals("--stream")) {
+                stream = true;
+            } else if (arg.equals("--dump-tokens")) {
+                dumpTokens = true;
+            } else if (arg.equals("--dump-ast")) {
+                dumpAst = true;
+            } else if (arg.equals("--time-phases")) {
+                timePhases = true;
+            } else if (arg.startsWith("--profile=") && arg.length() > "--profile=".length()) {
+                profilePath = arg.substring("--profile=".length());
+            } else if (arg.startsWith("--max-depth=")) {
+                maxCallDepth = parseCount(arg.substring("--max-depth=".length()), 1, MAX_CALL_DEPTH);
+            } else if (bench != null && arg.startsWith("--warmup=")) {
+                bench.warmup = parseCount(arg.substring("--warmup=".length()), 0, Integer.MAX_VALUE);
+            } else if (bench != null && arg.startsWith("--iterations=")) {
+                bench.iterations = parseCount(arg.substring("--iterations=".length()), 1, Integer.MAX_VALUE);
+            } else if (bench != null && arg.startsWith("--baseline=")) {
+                bench.baseline = arg.substring("--baseline=".length());
+            } else if (bench != null && arg.startsWith("--threshold=")) {
+                bench.threshold = parseThreshold(arg.substring("--threshold=".length()));
+            } else if (arg.equals("bench") && bench == null && script == null) {
+                bench = new BenchRunner();
+            } else if (arg.startsWith("--") || script != null) {// 报错
+                usage();
+            } else {
+                script = arg;
+            }
         }
+
+        if (bench != null && (script == null || stream)) usage();
+        if (stream && (dumpTokens || dumpAst || timePhases)) usage();//流式执行时各阶段交替进行，不能分别输出
+        if (bench != null && profilePath != null) usage();
+        if (profilePath != null) {
+            profiler = new Profiler();
+            interpreter.profiler = profiler;
+            if (vm != null) vm.profiler = profiler;
+        }
+
+        //Interpreter的每层Lox调用要经过十几个Java栈帧，在栈大小按maxCallDepth分配的线程中执行，深递归在达到上限前不会StackOverflowError
+        //默认上限下约为800MB，但只是保留的虚拟地址空间，实际占用的内存随递归深度增长，一行的脚本不会用到
+        //VM的调用帧在堆上，bench模式不执行深递归，这两种情况使用默认的栈大小(0)
+        long stackSize = vm != null || bench != null ? 0
+                : Math.min((maxCallDepth + 1) * STACK_BYTES_PER_CALL, MAX_STACK_BYTES);
+        String path = script;
+        BenchRunner runner = bench;
+        Thread thread = new Thread(null, () -> {
+            if (profiler != null) profiler.start();
+            try {
+                if (runner != null) {// 执行目录中的基准测试脚本
+                    int status = runner.run(Paths.get(path), vm != null, optimize);
+                    if (status != 0) exit(status);
+                } else if (stream) {// 流式执行文件或标准输入
+                    //和runFile一样把无法解码的字节替换掉，而不是抛出MalformedInputException
+                    Reader reader = new InputStreamReader(
+                            path != null ? Files.newInputStream(Paths.get(path)) : System.in, Charset.defaultCharset());
+                    try (reader) {
+                        runStream(reader);
+                    }
+                    if (hadError) exit(65);
+                    if (hadRuntimeError) exit(70);
+                } else if (path != null) {// 输入路径执行文件
+                    runFile(path);
+                } else {// 在终端中读取命令执行
+                    runPrompt();
+                }
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            } finally {
+                finish();
+            }
+        }, "lox", stackSize);
+        AtomicReference<Throwable> failure = new AtomicReference<>();//lox线程中没有被处理的异常，由main报告并决定退出码
+        thread.setUncaughtExceptionHandler((t, error) -> failure.set(error));
+        try {
+            thread.start();
+        } catch (OutOfMemoryError error) {//无法为线程栈保留足够的空间
+            System.err.println("Cannot reserve a " + (stackSize >> 20) + " MB stack for --max-depth=" + maxCallDepth
+                    + "; use a smaller depth.");
+            usage();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof UncheckedIOException) {//读取脚本或baseline失败
+            System.err.println("I/O error: " + error.getCause());
+            exit(74);
+        } else if (error != null) {//解释器自身的错误或内存耗尽
+            error.printStackTrace();
+            exit(70);
+        }
+    }
+
+    private static int parseCount(String value, int min, int max) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count >= min && count <= max) return count;
+        } catch (NumberFormatException error) {
+        }
+        usage();
+        return 0;
+    }
+
+    private static double parseThreshold(String value) {
+        try {
+            double threshold = Double.parseDouble(value);
+            if (threshold >= 0) return threshold;
+        } catch (NumberFormatException error) {
+        }
+        usage();
+        return 0;
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--vm] [--no-optimize] [--max-depth=<n>] [--stream] [--profile=<file>] [script]");
+        System.out.println("       jlox [--vm] [--no-optimize] [--dump-tokens] [--dump-ast] [--time-phases] [script]");
+        System.out.println("       jlox [--vm] [--no-optimize] bench <dir> [--warmup=<n>] [--iterations=<n>]"
+                + " [--baseline=<file>] [--threshold=<percent>]");
+        System.exit(64);
+    }
+
+    private static void exit(int status) {//System.exit不会执行finally，退出前先写出缓冲的输出和profile
+        finish();
+        System.exit(status);
+    }
+
+    private static void finish() {
+        flushOutput();
+        if (profiler == null) return;
+        profiler.stop();
+        try (Writer writer = Files.newBufferedWriter(Paths.get(profilePath), StandardCharsets.UTF_8)) {
+            profiler.report(writer);
+        } catch (IOException error) {
+            System.err.println("Could not write profile '" + profilePath + "': " + error.getMessage());
+        }
+        profiler = null;//exit()之后finally中不再重复输出
+    }
+
+    private static void flushOutput() {
+        interpreter.output.flush();
+        if (vm != null) vm.output.flush();
     }
 
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));// 按路径读取字节码文件
         run(new String(bytes, Charset.defaultCharset()));// 将字节码转化为unicode字符
-        if(hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+        if(hadError) exit(65);
+        if (hadRuntimeError) exit(70);
     }
 
     private static void runPrompt() throws IOException {
@@ -36,6 +197,7 @@ public class Lox {
         BufferedReader reader = new BufferedReader(input);
 
         for (;;) {
+            flushOutput();//上一行的输出在提示符之前写出
             System.out.print("> ");
             String line = reader.readLine();
             if (line == null)
@@ -46,30 +208,91 @@ public class Lox {
     }
 
     private static void run(String source) {
+        PhaseTimer timer = new PhaseTimer(timePhases);
+
+        timer.start();
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
+        timer.end("scan");
+        timer.detail(tokens.size() + " tokens");
 
-        // For now, just print the tokens.
-        for (Token token : tokens) {
-            System.out.println(token);
+        if (dumpTokens) {
+            for (Token token : tokens) {
+                System.out.println(token);
+            }
         }
 
+        timer.start();
         Parser parser = new Parser(tokens);
         List<Stmt> statements = parser.parse();
+        timer.end("parse");
 
         // Stop if there was a syntax error.
-        if (hadError) return;
+        if (hadError) {
+            timer.report();
+            return;
+        }
+        if (timePhases) timer.detail(new AstCounter().count(statements) + " nodes");
 
+        timer.start();
         Resolver resolver = new Resolver(interpreter);
         resolver.resolve(statements);
+        timer.end("resolve");
 
         // Stop if there was a resolution error.
-        if (hadError) return;
+        if (hadError) {
+            timer.report();
+            return;
+        }
+
+        if (optimize) {
+            timer.start();
+            statements = new Optimizer().optimize(statements);
+            timer.end("optimize");
+            if (timePhases) timer.detail(new AstCounter().count(statements) + " nodes");
+        }
 
-        interpreter.interpret(statements);
-        if (hadRuntimeError) return;
+        if (dumpAst) System.out.print(new AstPrinter().print(statements));
 
-        //System.out.println(new AstPrinter().print(expression));
+        timer.start();
+        execute(statements);
+        timer.end("execute");
+        timer.report();
+    }
+
+    //Scanner从reader中按需读入，Parser每解析完一个顶层声明就resolve并执行，内存占用与脚本大小无关，输出也不必等到全部解析完成
+    //出现语法或resolve错误后继续检查之后的声明但不再执行，出现运行时错误后停止
+    private static void runStream(Reader reader) throws IOException {
+        Scanner scanner = new Scanner(reader);
+        Parser parser = new Parser(scanner);
+        Resolver resolver = new Resolver(interpreter);
+        while (!parser.isAtEnd()) {
+            scanner.forgetLiterals();
+            Stmt declaration = parser.parseDeclaration();
+            if (hadError) continue;
+
+            List<Stmt> statements = Collections.singletonList(declaration);
+            resolver.resolve(statements);
+            if (hadError) continue;
+
+            if (optimize) statements = new Optimizer().optimize(statements);
+            execute(statements);
+            if (hadRuntimeError) return;
+            if (!reader.ready()) flushOutput();//接下来要等待输入，先写出已有的输出；读文件时不会每条声明都flush
+        }
+    }
+
+    private static void execute(List<Stmt> statements) {//profiler只采样这一段，前端各阶段不计入<script>
+        if (profiler != null) profiler.resume();
+        try {
+            if (vm != null) {
+                vm.interpret(statements);
+            } else {
+                interpreter.interpret(statements);
+            }
+        } finally {
+            if (profiler != null) profiler.pause();
+        }
     }
 
     static void error(int line, String message) {//处理scan时的错误
@@ -85,11 +308,13 @@ public class Lox {
     }
 
     static void runtimeError(RuntimeError error) {//处理Runtime Error
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        flushOutput();//错误信息出现在它之前的输出之后
+        System.err.println(error.getMessage() + "\n" + error.stackTrace());
         hadRuntimeError = true;
     }
 
     private static void report(int line, String where, String message) {
+        flushOutput();
         System.err.println("[line " + line + "] Error" + where + ": " + message);
         hadError = true;
     }
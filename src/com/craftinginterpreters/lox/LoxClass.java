@@ -5,29 +5,32 @@ import java.util.List;
 import java.util.Map;
 
 class LoxClass implements LoxCallable {//TODO: 增加静态方法
+    static final Symbol INIT = Symbol.intern("init");
     final String name;
     final LoxClass superclass;
-    Map<String, LoxFunction> methods = new HashMap<>();
+    final Map<Symbol, LoxFunction> methods;//扁平化的方法表：先复制父类（已扁平化）的表，再用自身方法覆盖，查找时不再沿继承链递归
+    final LoxFunction initializer;//init方法在构造时缓存，arity和call不再每次查找
+    final Shape rootShape = new Shape();//该类实例的初始Shape
+    int expectedFields = 0;//该类实例达到过的最大字段数，新实例按此分配fields数组
 
-    LoxClass(String name, LoxClass superclass ,Map<String, LoxFunction> methods){
+    LoxClass(String name, LoxClass superclass ,Map<Symbol, LoxFunction> methods){
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+        Map<Symbol, LoxFunction> table = new HashMap<>();
+        if (superclass != null) {//父类的表已包含其所有祖先的方法，子类同名方法随后put即完成重写
+            table.putAll(superclass.methods);
+        }
+        table.putAll(methods);
+        this.methods = table;
+        this.initializer = table.get(INIT);
     }
 
-    public LoxFunction findMethod(String name) {
-        if(methods.containsKey(name)){
-            return methods.get(name);
-        }
-        if (superclass != null) {//在自身methods中没有找到时去superclass中找，同时解决了继承和重写问题！！妙啊！！然而无法解决在子类内部调用父类函数的问题，所以还是要做和this一样的处理
-            return superclass.findMethod(name);
-        }
-        return null;
+    public LoxFunction findMethod(Symbol name) {//类创建后方法表不再改变，一次查表即可
+        return methods.get(name);
     }
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) return 0;
         return initializer.arity();
     }
@@ -35,9 +38,8 @@ class LoxClass implements LoxCallable {//TODO: 增加静态方法
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {//实例化类的过程同样是一个调用过程，如 var time = Time() 的右侧被parse为一个callExpr，从而调用类的call方法
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);//!!!妙啊
+            initializer.invoke(interpreter, instance, arguments);//新实例直接作为this传入，不需要先bind
         }
         return instance;
     }
@@ -3,20 +3,24 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure;
+    final Stmt.Function declaration;
+    private final UpvalueCell[] upvalues;//闭包只持有函数体中实际引用的外层变量的cell，而不是整条环境链
     private final boolean isInitializer;//若是initializer则只能被调用一次
+    private final LoxInstance receiver;//bind得到的方法持有其instance，调用时作为this传入；未绑定的方法和普通函数为null
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
-        this.closure = closure;
+    LoxFunction(Stmt.Function declaration, UpvalueCell[] upvalues, boolean isInitializer) {
+        this(declaration, upvalues, isInitializer, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, UpvalueCell[] upvalues, boolean isInitializer, LoxInstance receiver) {
+        this.upvalues = upvalues;
         this.declaration = declaration;
         this.isInitializer = isInitializer;
+        this.receiver = receiver;
     }
 
-    LoxFunction bind(LoxInstance instance) {//实现func和instaance绑定
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment,isInitializer);
+    LoxFunction bind(LoxInstance instance) {//实现func和instaance绑定，只在方法作为值被取出时使用，直接调用走invoke
+        return new LoxFunction(declaration, upvalues, isInitializer, instance);
     }
 
     @Override
@@ -31,18 +35,44 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {//arguments是param在evaluate之后的Object
-        Environment environment = new Environment(closure);//使用上层函数传递的closure而不是global作为当前执行的环境
-        //在当前Interpreter中绑定function.params中的各个Token和其Object
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    Object invoke(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {//instance为方法的this，普通函数忽略
+        LoxFunction function = this;
+        for (;;) {//函数体以尾调用结束时在这里继续执行被调用的函数，而不是递归调用invoke
+            Object value;
+            try {
+                value = function.execute(interpreter, instance, arguments);
+            } catch (RuntimeError error) {//尾调用之后出错的是最后被调用的函数，而不是Interpreter.call调用的函数
+                error.function = function.declaration.name.lexeme;
+                throw error;
+            }
+            if (!(value instanceof TailCall)) return value;
+            TailCall tail = (TailCall) value;
+            function = tail.function;
+            instance = tail.receiver != null ? tail.receiver : function.receiver;
+            arguments = tail.arguments;
+            if (interpreter.profiler != null) interpreter.profiler.replace(function.declaration.name.lexeme, tail.line);
         }
+    }
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+    private Object execute(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+        Object[] frame = new Object[declaration.slotCount];//每次调用新建一个平坦的调用帧，函数中所有block的变量都在其中
+        boolean[] cells = declaration.paramCells;//被内层函数捕获的参数放进cell
+        int base = 0;
+        if (declaration.isMethod) {//方法的this占据slot 0
+            frame[0] = cells[0] ? new UpvalueCell(instance) : instance;
+            base = 1;
+        }
+        //在当前Interpreter中绑定function.params中的各个Token和其Object，参数依次占据之后的slot
+        for (int i = 0; i < declaration.params.size(); i++) {
+            Object argument = arguments.get(i);
+            frame[base + i] = cells[base + i] ? new UpvalueCell(argument) : argument;
         }
-        if (isInitializer) return closure.getAt(0, "this");
-        return null;//函数没有返回值则返回null
+
+        Object value = interpreter.executeBody(declaration.body, frame, upvalues);//函数没有返回值则返回null
+        if (isInitializer) return instance;
+        return value;
     }
 }
\ No newline at end of file
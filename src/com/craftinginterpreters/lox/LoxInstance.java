@@ -1,36 +1,29 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class LoxInstance {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    final LoxClass klass;
+    Shape shape;//字段名到下标的映射由同类、同字段顺序的实例共享
+    Object[] fields;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
+        this.fields = new Object[klass.expectedFields];//按该类实例之前达到的字段数预留空间
     }
 
-	public Object get(Token name) {
-        if(fields.containsKey(name.lexeme)){
-            return fields.get(name.lexeme);
+    int addField(Shape next) {//转换到多一个字段的Shape，返回新字段的下标
+        shape = next;
+        if (next.size > fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(next.size, fields.length * 2));
         }
-        LoxFunction method = klass.findMethod(name.lexeme);
-        if (method != null) return method.bind(this);
-
-        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
-    }
-    
-    public void set(Token name,Object value) {
-        // if(fields.containsKey(name.lexeme)){
-        //     fields.put(name.lexeme, value);
-        // }
-        // throw new RuntimeError(name, "No such property '" + name.lexeme + "'.");
-        fields.put(name.lexeme, value);//在init函数中被调用
+        if (next.size > klass.expectedFields) klass.expectedFields = next.size;
+        return next.size - 1;
     }
 
     @Override
     public String toString() {
         return "<instance of class " + klass.name + " >";
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,27 @@
+package com.craftinginterpreters.lox;
+
+//数字只有在离开数值计算路径（存入env、字段或作为返回值）时才需要装箱，
+//常见的小整数直接复用缓存好的Double，避免循环计数器每次都分配新的对象
+final class NumberCache {
+    private static final int LOW = -128;
+    private static final int HIGH = 1023;
+    private static final Double[] CACHE = new Double[HIGH - LOW + 1];
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = (double) (i + LOW);
+        }
+    }
+
+    static Double box(double value) {
+        int i = (int) value;
+        if (i == value && i >= LOW && i <= HIGH && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO) {
+            return CACHE[i - LOW];
+        }
+        return value;
+    }
+
+    private NumberCache() {
+    }
+}
@@ -0,0 +1,48 @@
+package com.craftinginterpreters.lox;
+
+//字节码指令，注释中为每条指令之后紧跟的操作数，u8/u16分别为1字节和2字节
+final class OpCode {
+    static final byte CONSTANT = 0;       // u16 常量下标
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;      // u8 栈上slot
+    static final byte SET_LOCAL = 6;      // u8
+    static final byte GET_GLOBAL = 7;     // u16 常量池中的Globals.Cell
+    static final byte DEFINE_GLOBAL = 8;  // u16
+    static final byte SET_GLOBAL = 9;     // u16
+    static final byte GET_UPVALUE = 10;   // u8
+    static final byte SET_UPVALUE = 11;   // u8
+    static final byte GET_PROPERTY = 12;  // u16 属性名
+    static final byte SET_PROPERTY = 13;  // u16
+    static final byte GET_SUPER = 14;     // u16 方法名
+    static final byte EQUAL = 15;
+    static final byte NOT_EQUAL = 16;
+    static final byte GREATER = 17;
+    static final byte GREATER_EQUAL = 18;
+    static final byte LESS = 19;
+    static final byte LESS_EQUAL = 20;
+    static final byte ADD = 21;
+    static final byte SUBTRACT = 22;
+    static final byte MULTIPLY = 23;
+    static final byte DIVIDE = 24;
+    static final byte NOT = 25;
+    static final byte NEGATE = 26;
+    static final byte PRINT = 27;
+    static final byte JUMP = 28;          // u16 向前跳转的距离
+    static final byte JUMP_IF_FALSE = 29; // u16，不弹出条件
+    static final byte LOOP = 30;          // u16 向后跳转的距离
+    static final byte CALL = 31;          // u8 参数个数
+    static final byte INVOKE = 32;        // u16 方法名, u8 参数个数
+    static final byte SUPER_INVOKE = 33;  // u16 方法名, u8 参数个数
+    static final byte CLOSURE = 34;       // u16 函数常量, 之后每个upvalue两个u8: isLocal, index
+    static final byte CLOSE_UPVALUE = 35;
+    static final byte RETURN = 36;
+    static final byte CLASS = 37;         // u16 类名
+    static final byte INHERIT = 38;
+    static final byte METHOD = 39;        // u16 方法名
+
+    private OpCode() {
+    }
+}
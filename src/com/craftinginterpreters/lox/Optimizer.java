@@ -0,0 +1,278 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+//在Resolver之后、执行之前改写AST：常量折叠、删除不会执行的分支、block中无副作用的expression语句和只写不读的局部变量
+//visitor返回改写后的节点，语句返回null表示删除；节点没有变化时原样返回，新建节点时复制resolver写在节点上的结果
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    List<Stmt> optimize(List<Stmt> statements) {// 外部调用接口
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Expression) {//顶层的expression语句会打印结果，只折叠不删除
+                result.add(new Stmt.Expression(optimize(((Stmt.Expression) statement).expression)));
+                continue;
+            }
+            Stmt optimized = optimize(statement);
+            if (optimized == null) continue;
+            if (optimized instanceof Stmt.Expression) {//如if(true) f();折叠后不能变成会打印结果的顶层expression语句
+                List<Stmt> block = new ArrayList<>();
+                block.add(optimized);
+                optimized = new Stmt.Block(block);
+            }
+            result.add(optimized);
+        }
+        return result;
+    }
+
+    private Expr optimize(Expr expression) {
+        return expression.accept(this);
+    }
+
+    private Stmt optimize(Stmt statement) {
+        return statement.accept(this);
+    }
+
+    private List<Stmt> optimizeBlock(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt statement : statements) {
+            Stmt optimized = optimize(statement);
+            if (optimized == null) continue;
+            result.add(optimized);
+            if (optimized instanceof Stmt.Return || optimized instanceof Stmt.Break) break;//之后的语句不会被执行
+        }
+        return result;
+    }
+
+    private Stmt orEmpty(Stmt statement) {//if和while的分支不能为null
+        if (statement != null) return statement;
+        return new Stmt.Block(new ArrayList<>());
+    }
+
+    //求值没有副作用也不会报错的表达式，作为语句时可以直接删除
+    private boolean isPure(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.This) return true;
+        if (expr instanceof Expr.Variable) return ((Expr.Variable) expr).global == null;//读取全局变量可能报Undefined variable
+        if (expr instanceof Expr.Grouping) return isPure(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Logic) {
+            Expr.Logic logic = (Expr.Logic) expr;
+            return isPure(logic.left) && isPure(logic.right);
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            return unary.operator.type == BANG && isPure(unary.right);
+        }
+        return false;
+    }
+
+    /********************************************* Visit Expression **************************************************/
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (expr.target != null && !expr.target.read && !expr.target.captured) {//被赋值的局部变量从未被读取，只保留右侧表达式的求值
+            return value;
+        }
+        if (value == expr.value) return expr;
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.storage = expr.storage;
+        assign.slot = expr.slot;
+        assign.global = expr.global;
+        assign.target = expr.target;
+        return assign;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        boolean changed = callee != expr.callee;
+        List<Expr> arguments = new ArrayList<>();
+        for (Expr argument : expr.arguments) {
+            Expr optimized = optimize(argument);
+            if (optimized != argument) changed = true;
+            arguments.add(optimized);
+        }
+        if (!changed) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitLogicExpr(Expr.Logic expr) {
+        Expr left = optimize(expr.left);
+        if (left instanceof Expr.Literal) {//左侧为常量时结果就是左侧或右侧之一
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+            if (expr.operator.type == OR ? truthy : !truthy) return left;
+            return optimize(expr.right);
+        }
+        Expr right = optimize(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logic(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            try {
+                Object value = Interpreter.binary(expr.operator, ((Expr.Literal) left).value, ((Expr.Literal) right).value);
+                if (value instanceof CharSequence) value = value.toString();//字面量中的字符串总是String
+                return new Expr.Literal(value);
+            } catch (RuntimeError error) {
+                //类型不匹配的常量留到运行时报错
+            }
+        }
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = optimize(expr.expression);
+        if (expression instanceof Expr.Literal) return expression;
+        if (expression == expr.expression) return expr;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) right).value;
+            if (expr.operator.type == BANG) return new Expr.Literal(!Interpreter.isTruthy(value));
+            if (value instanceof Double) return new Expr.Literal(NumberCache.box(-(double) value));
+        }
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    /********************************************* Visit Statement **************************************************/
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        for (Stmt.Function method : stmt.methods) {
+            visitFunctionStmt(method);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal) {//条件为常量时只保留会执行的分支
+            Stmt branch = Interpreter.isTruthy(((Expr.Literal) condition).value) ? stmt.thenBranch : stmt.elseBranch;
+            return branch == null ? null : optimize(branch);
+        }
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        if (thenBranch == null && elseBranch == null) {
+            return isPure(condition) ? null : new Stmt.Expression(condition);
+        }
+        return new Stmt.If(condition, orEmpty(thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {//函数体就地替换，保留resolver写在Function节点上的slot信息
+        List<Stmt> body = optimizeBlock(stmt.body);
+        stmt.body.clear();
+        stmt.body.addAll(body);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+            return null;
+        }
+        return new Stmt.While(condition, orEmpty(optimize(stmt.body)));
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimizeBlock(stmt.statements);
+        if (statements.isEmpty()) return null;
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (isPure(expression)) return null;
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+        if (stmt.slot >= 0 && !stmt.read && !stmt.captured) {//从未被读取的局部变量，只保留有副作用的初始化表达式；被捕获的变量仍要建cell
+            if (initializer == null || isPure(initializer)) return null;
+            return new Stmt.Expression(initializer);
+        }
+        if (initializer == stmt.initializer) return stmt;
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        var.captured = stmt.captured;
+        var.read = stmt.read;
+        return var;
+    }
+}
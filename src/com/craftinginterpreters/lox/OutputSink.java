@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+//print语句和顶层表达式结果的输出目标，Interpreter和VM共用
+//默认的STDOUT直接写stdout的文件描述符，带64KB缓冲，不经过加锁且按行flush的System.out；由Lox在退出、报错和等待输入前flush
+//嵌入时可以通过of(Writer)或自己实现该接口替换，例如写入ByteBuffer
+interface OutputSink {
+    void println(String line);
+
+    void flush();
+
+    OutputSink STDOUT = of(new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), Charset.defaultCharset()), 1 << 16));
+
+    OutputSink DISCARD = new OutputSink() {//丢弃全部输出，用于基准测试
+        @Override
+        public void println(String line) {
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    static OutputSink of(Writer writer) {//调用者负责在结束时flush
+        return new OutputSink() {
+            @Override
+            public void println(String line) {
+                try {
+                    writer.write(line);
+                    writer.write('\n');
+                } catch (IOException error) {
+                    throw new UncheckedIOException(error);
+                }
+            }
+
+            @Override
+            public void flush() {
+                try {
+                    writer.flush();
+                } catch (IOException error) {
+                    throw new UncheckedIOException(error);
+                }
+            }
+        };
+    }
+}
@@ -4,6 +4,7 @@ import java.util.List;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.function.Supplier;
 
 // import jdk.nashorn.internal.parser.Token;
 // import jdk.nashorn.internal.parser.TokenType;
@@ -19,10 +20,20 @@ class Parser {
          */
         private static final long serialVersionUID = 1L;
     };
-    private final List<Token> tokens;
-    private int current = 0;
+    //只需要向前看一个token，按需从scanner或token列表中取出，不要求先扫描完全部源码
+    private final Supplier<Token> tokens;
+    private Token current = null;//下一个待处理的token，用到时才取出，流式执行时不会为了向前看而阻塞在下一条语句上
+    private Token previous = null;
 
     Parser(List<Token> tokens) {
+        this(tokens.iterator()::next);
+    }
+
+    Parser(Scanner scanner) {
+        this(scanner::nextToken);
+    }
+
+    private Parser(Supplier<Token> tokens) {
         this.tokens = tokens;
     }
 
@@ -36,6 +47,10 @@ class Parser {
         return statements;
     }
 
+    Stmt parseDeclaration() {//流式执行时每次只解析一个顶层声明，出错时返回null
+        return declaration();
+    }
+
     // Expr parse() {
     //     try {
     //         return expression();
@@ -45,20 +60,24 @@ class Parser {
     // }
 
     private Token advance(){
-        if(!isAtEnd()) current++;
+        if(!isAtEnd()) {
+            previous = current;
+            current = null;
+        }
         return previous();
     }
 
-    private boolean isAtEnd() {
+    boolean isAtEnd() {
         return peek().type == EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        if (current == null) current = tokens.get();
+        return current;
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return previous;
     }
 
     private ParseError error(Token token, String message) {
@@ -322,7 +341,7 @@ class Parser {
         }
         List<Stmt.Function> methods = new ArrayList<>();
         consume(LEFT_BRACE, "Except '{' before class body");
-        while(!match(RIGHT_BRACE)&&!isAtEnd()){
+        while(!check(RIGHT_BRACE)&&!isAtEnd()){
             methods.add(function("method"));
         }
         consume(RIGHT_BRACE, "Expect '}' after class body.");
@@ -367,6 +386,7 @@ class Parser {
         if (match(FOR)) return forStatement();
         if (match(LEFT_BRACE)) return new Stmt.Block(block());
         if (match(RETURN)) return returnStatement();
+        if (match(BREAK)) return breakStatement();
         return expressionStatement();
     }
 
@@ -465,6 +485,12 @@ class Parser {
         return new Stmt.Return(keyword, value);
     }
 
+    private Stmt breakStatement() {
+        Token keyword = previous();
+        consume(SEMICOLON, "Expect ';' after 'break'.");
+        return new Stmt.Break(keyword);
+    }
+
     private Stmt expressionStatement() {
         Expr expr = expression();
         consume(SEMICOLON, "Expect ';' after value.");
@@ -0,0 +1,52 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+//--time-phases：记录scan、parse、resolve、optimize和execute各阶段的耗时和当前线程分配的字节数，结束后输出到stderr
+//未启用时所有方法直接返回，不影响正常执行
+class PhaseTimer {
+    private final boolean enabled;
+    private final com.sun.management.ThreadMXBean threads;
+    private final List<String> lines = new ArrayList<>();
+    private long startNanos;
+    private long startBytes;
+
+    PhaseTimer(boolean enabled) {
+        this.enabled = enabled;
+        this.threads = enabled ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+    }
+
+    void start() {
+        if (!enabled) return;
+        startBytes = allocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    void end(String phase) {
+        if (!enabled) return;
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = allocatedBytes() - startBytes;
+        lines.add(String.format(Locale.ROOT, "%-9s %10.3f ms %14d bytes", phase, nanos / 1e6, bytes));
+    }
+
+    void detail(String detail) {//附加在上一个阶段之后，如token和节点的个数
+        if (!enabled || lines.isEmpty()) return;
+        int last = lines.size() - 1;
+        lines.set(last, lines.get(last) + "   " + detail);
+    }
+
+    void report() {
+        if (!enabled) return;
+        for (String line : lines) {
+            System.err.println(line);
+        }
+        lines.clear();
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
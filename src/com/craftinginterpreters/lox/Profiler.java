@@ -0,0 +1,195 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+//--profile=<file>：采样Lox程序的调用栈
+//Interpreter和VM在每次Lox调用时把函数名和调用处的行号压入影子栈，返回时弹出；未启用时它们的profiler为null，只多一次null检查
+//采样线程每隔INTERVAL_NANOS读取一次影子栈，累加到以<script>为根的调用树中；读取时不加锁，栈恰好在变化时只影响这一个样本
+//只在resume()和pause()之间采样，Lox只在执行时resume，scan、parse、resolve和等待输入的时间不计入<script>
+//结束后把调用树按flamegraph.pl的collapsed格式(frame;frame;... count)写入文件，并在stderr输出每个函数的self和total占比
+class Profiler {
+    private static final long INTERVAL_NANOS = 1_000_000;//采样间隔1ms
+    private static final int MAX_SAMPLED_DEPTH = 1024;//更深的栈只记录最内层的部分，采样的开销不随递归深度增长
+    private static final String TRUNCATED = "[truncated]";
+
+    //影子栈，只由执行Lox代码的线程写入
+    private String[] names = new String[64];
+    private int[] lines = new int[64];//调用处的行号
+    private volatile int depth = 0;//先写入栈中的元素再更新depth，采样线程读到depth后就能看到这些元素
+
+    //调用树，只由采样线程访问，stop()之后交给调用者
+    private final Node root = new Node("<script>", 0);
+    private long samples = 0;
+    private volatile boolean running = false;
+    private volatile boolean executing = false;//Lox代码正在执行，采样线程只在此时记录样本
+    private Thread sampler;
+
+    private static class Node {
+        final String name;
+        final int line;
+        long self = 0;//栈顶恰好是该节点的样本数
+        Node child;//第一个子节点，子节点之间用sibling连接
+        Node sibling;
+
+        Node(String name, int line) {
+            this.name = name;
+            this.line = line;
+        }
+
+        Node child(String name, int line) {
+            for (Node node = child; node != null; node = node.sibling) {
+                if (node.line == line && node.name.equals(name)) return node;
+            }
+            Node node = new Node(name, line);
+            node.sibling = child;
+            child = node;
+            return node;
+        }
+
+        String label() {
+            return line > 0 ? name + ":" + line : name;
+        }
+    }
+
+    /********************************************* Shadow Stack **************************************************/
+
+    void enter(String name, int line) {
+        int top = depth;
+        if (top == names.length) {
+            names = Arrays.copyOf(names, top * 2);
+            lines = Arrays.copyOf(lines, top * 2);
+        }
+        names[top] = name;
+        lines[top] = line;
+        depth = top + 1;
+    }
+
+    void replace(String name, int line) {//尾调用复用调用者的帧
+        int top = depth - 1;
+        names[top] = name;
+        lines[top] = line;
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    void reset() {//运行时错误后调用栈被清空
+        depth = 0;
+    }
+
+    /********************************************* Sampling **************************************************/
+
+    void start() {
+        running = true;
+        sampler = new Thread(() -> {
+            while (running) {
+                LockSupport.parkNanos(INTERVAL_NANOS);
+                if (running && executing) sample();
+            }
+        }, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void resume() {
+        executing = true;
+    }
+
+    void pause() {
+        executing = false;
+    }
+
+    void stop() {
+        if (sampler == null) return;
+        running = false;
+        LockSupport.unpark(sampler);
+        try {
+            sampler.join();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+        sampler = null;
+    }
+
+    private void sample() {
+        int top = depth;
+        String[] names = this.names;
+        int[] lines = this.lines;
+        top = Math.min(top, Math.min(names.length, lines.length));//数组恰好在扩容时可能读到旧数组
+        Node node = root;
+        int bottom = 0;
+        if (top > MAX_SAMPLED_DEPTH) {
+            bottom = top - MAX_SAMPLED_DEPTH;
+            node = node.child(TRUNCATED, 0);
+        }
+        for (int i = bottom; i < top; i++) {
+            String name = names[i];
+            if (name == null) break;
+            node = node.child(name, lines[i]);
+        }
+        node.self++;
+        samples++;
+    }
+
+    /********************************************* Report **************************************************/
+
+    //深度优先写出collapsed stacks，同时在functions中累加每个函数的[self, total]样本数，返回node子树中的样本数
+    //递归调用的函数在同一个样本中只计入一次total
+    private long walk(Node node, StringBuilder path, Map<String, Integer> onPath,
+                      Map<String, long[]> functions, Writer out) throws IOException {
+        int length = path.length();
+        if (length > 0) path.append(';');
+        path.append(node.label());
+        if (node.self > 0) {
+            out.write(path.toString());
+            out.write(' ');
+            out.write(Long.toString(node.self));
+            out.write('\n');
+        }
+
+        int active = onPath.getOrDefault(node.name, 0);
+        onPath.put(node.name, active + 1);
+        long total = node.self;
+        for (Node child = node.child; child != null; child = child.sibling) {
+            total += walk(child, path, onPath, functions, out);
+        }
+        onPath.put(node.name, active);
+
+        long[] counts = functions.computeIfAbsent(node.name, name -> new long[2]);
+        counts[0] += node.self;
+        if (active == 0) counts[1] += total;//外层已经有同名的帧时不重复计入
+        path.setLength(length);
+        return total;
+    }
+
+    void report(Writer collapsed) throws IOException {
+        Map<String, long[]> functions = new HashMap<>();
+        walk(root, new StringBuilder(), new HashMap<>(), functions, collapsed);
+        functions.remove(TRUNCATED);
+
+        List<Map.Entry<String, long[]>> rows = new ArrayList<>(functions.entrySet());
+        rows.sort((a, b) -> a.getValue()[0] != b.getValue()[0]
+                ? Long.compare(b.getValue()[0], a.getValue()[0])
+                : Long.compare(b.getValue()[1], a.getValue()[1]));
+        System.err.println(String.format(Locale.ROOT, "%d samples, %.1f ms interval",
+                samples, INTERVAL_NANOS / 1e6));
+        System.err.println(String.format(Locale.ROOT, "%7s %7s  %s", "self", "total", "function"));
+        for (Map.Entry<String, long[]> row : rows) {
+            System.err.println(String.format(Locale.ROOT, "%6.1f%% %6.1f%%  %s",
+                    percent(row.getValue()[0]), percent(row.getValue()[1]), row.getKey()));
+        }
+    }
+
+    private double percent(long count) {
+        return samples == 0 ? 0 : 100.0 * count / samples;
+    }
+}
@@ -1,6 +1,7 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -9,16 +10,72 @@ import com.craftinginterpreters.lox.Expr.This;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和interpreter不同，expr的visitor
     private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();// TODO:
-                                                                     // 再加一个状态来反应变量是否在scope中被使用，scope结束时未使用则提出warning
-                                                                     // Question：为什么这里使用String而非Token等？Ans：因为有this
+    private final Stack<Scope> scopes = new Stack<>();// 局部变量是否被读取已记录在Var.read上，TODO: scope结束时对未使用的变量提出warning
+                                                       // Question：Scope.locals为什么使用String而非Token等？Ans：因为有this
     private FunctionType currentFunction = FunctionType.NONE;// 用来检测一些不符合规范的语句，如出现在function body外的return语句
     private ClassType currentClass = ClassType.NONE;//用来检测this的非法使用
+    private int loopDepth = 0;//用来检测出现在循环外的break，进入函数体时清零
 
     Resolver(Interpreter interpreter) {
         this.interpreter = interpreter;
     }
 
+    //一个词法作用域。resolve时只记录其中声明的变量和出现的引用，最外层的scope结束后再统一给变量分配slot并回填到节点上
+    //所有scope的变量都放在所在函数的调用帧中（顶层代码放在Interpreter的顶层帧中），block不再分配任何对象
+    private static class Scope {
+        final Scope enclosing;
+        final Scope function;//所在函数体的scope，顶层代码中为null
+        final Stmt node;//对应的Block、Function，或者存放super的Class
+        final Map<String, Local> locals = new LinkedHashMap<>();//按声明顺序
+        final List<Scope> children = new ArrayList<>();
+        final List<Reference> references = new ArrayList<>();//在该scope中出现的对局部变量的引用
+        final List<Local> upvalues = new ArrayList<>();//函数scope捕获的外层变量，下标即闭包中upvalue的下标
+        int size = 0;//函数scope或最外层scope：调用帧的大小
+        int next = 0;//调用帧中下一个空闲的slot
+
+        Scope(Scope enclosing, Stmt node) {
+            this.enclosing = enclosing;
+            this.node = node;
+            if (node instanceof Stmt.Function) this.function = this;
+            else this.function = enclosing == null ? null : enclosing.function;
+        }
+
+        Scope frame() {//变量实际存放的调用帧对应的scope
+            if (node instanceof Stmt.Function || enclosing == null) return this;
+            return enclosing.frame();
+        }
+
+        Scope enclosingFunction() {//函数scope外层的函数，顶层为null
+            return enclosing == null ? null : enclosing.function;
+        }
+    }
+
+    //scope中的一个局部变量，slot为其在调用帧中的下标
+    private static class Local {
+        final Scope scope;
+        int slot = -1;
+        boolean defined = false;// false表示该变量尚未初始化
+        boolean captured = false;//被内层函数引用，调用帧中存放的是和闭包共享的cell
+        Stmt declaration = null;//声明该变量的Var/Function/Class语句，用来回填slot；被读取时在Var上标记read，供Optimizer删除只写不读的变量
+
+        Local(Scope scope) {
+            this.scope = scope;
+        }
+    }
+
+    //一次对局部变量的读写，slot要等变量的位置确定后才能写到节点上
+    private static class Reference {
+        final Expr expr;
+        final Local target;
+        final int upvalue;//在内层函数中引用时为该函数upvalue的下标，否则为-1
+
+        Reference(Expr expr, Local target, int upvalue) {
+            this.expr = expr;
+            this.target = target;
+            this.upvalue = upvalue;
+        }
+    }
+
     private enum FunctionType {
         NONE, FUNCTION, METHOD, INITIALIZER
     }
@@ -26,12 +83,97 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和in
         NONE, CLASS, SUBCLASS
     }
 
-    private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+    private void beginScope(Stmt node) {
+        Scope enclosing = scopes.isEmpty() ? null : scopes.peek();
+        Scope scope = new Scope(enclosing, node);
+        if (enclosing != null) enclosing.children.add(scope);
+        scopes.push(scope);
     }
 
     private void endScope() {
-        scopes.pop();
+        Scope scope = scopes.pop();
+        if (scopes.isEmpty()) {//最外层的scope结束时其中所有变量是否被捕获都已确定
+            layout(scope);
+            if (scope.function == null) interpreter.reserveFrame(scope.size);//顶层的block和super使用Interpreter的顶层帧
+        }
+    }
+
+    //先序遍历scope树：给变量分配调用帧中的slot，再回填声明和引用节点
+    private void layout(Scope scope) {
+        Scope frame = scope.frame();
+        int mark = frame.next;
+        for (Local local : scope.locals.values()) {
+            local.slot = frame.next++;
+            if (local.declaration instanceof Stmt.Var) {
+                ((Stmt.Var) local.declaration).slot = local.slot;
+                ((Stmt.Var) local.declaration).captured = local.captured;
+            } else if (local.declaration instanceof Stmt.Function) {
+                ((Stmt.Function) local.declaration).slot = local.slot;
+                ((Stmt.Function) local.declaration).captured = local.captured;
+            } else if (local.declaration instanceof Stmt.Class) {
+                ((Stmt.Class) local.declaration).slot = local.slot;
+                ((Stmt.Class) local.declaration).captured = local.captured;
+            }
+        }
+        frame.size = Math.max(frame.size, frame.next);
+        if (scope.node instanceof Stmt.Class) {
+            ((Stmt.Class) scope.node).superSlot = scope.locals.get("super").slot;
+        } else if (scope.node instanceof Stmt.Function) {
+            describe(scope, (Stmt.Function) scope.node);
+        }
+        for (Reference reference : scope.references) {//被引用的变量在外层或本层scope中，slot已经分配
+            if (reference.upvalue >= 0) {
+                bind(reference.expr, Storage.UPVALUE, reference.upvalue);
+            } else {
+                bind(reference.expr, reference.target.captured ? Storage.CELL : Storage.LOCAL, reference.target.slot);
+            }
+        }
+        for (Scope child : scope.children) {
+            layout(child);
+        }
+        if (frame != scope) frame.next = mark;//block结束后其slot可以被之后的兄弟block复用
+
+        if (scope.node instanceof Stmt.Function) {
+            ((Stmt.Function) scope.node).slotCount = scope.size;
+        }
+    }
+
+    private void describe(Scope scope, Stmt.Function function) {//this和参数是否要装进cell，以及创建闭包时每个upvalue的来源
+        int params = function.params.size() + (function.isMethod ? 1 : 0);
+        function.paramCells = new boolean[params];
+        int i = 0;
+        for (Local local : scope.locals.values()) {//this和参数最先声明
+            if (i == params) break;
+            function.paramCells[i++] = local.captured;
+        }
+        Scope enclosing = scope.enclosingFunction();
+        function.upvalueIsLocal = new boolean[scope.upvalues.size()];
+        function.upvalueIndexes = new int[scope.upvalues.size()];
+        for (i = 0; i < scope.upvalues.size(); i++) {
+            Local local = scope.upvalues.get(i);
+            if (local.scope.function == enclosing) {//直接外层函数（或顶层）的变量，取其调用帧中的cell
+                function.upvalueIsLocal[i] = true;
+                function.upvalueIndexes[i] = local.slot;
+            } else {//更外层的变量，外层函数已经把它作为自己的upvalue
+                function.upvalueIndexes[i] = enclosing.upvalues.indexOf(local);
+            }
+        }
+    }
+
+    private void bind(Expr expr, Storage storage, int slot) {
+        if (expr instanceof Expr.Variable) {
+            ((Expr.Variable) expr).storage = storage;
+            ((Expr.Variable) expr).slot = slot;
+        } else if (expr instanceof Expr.Assign) {
+            ((Expr.Assign) expr).storage = storage;
+            ((Expr.Assign) expr).slot = slot;
+        } else if (expr instanceof Expr.This) {
+            ((Expr.This) expr).storage = storage;
+            ((Expr.This) expr).slot = slot;
+        } else if (expr instanceof Expr.Super) {
+            ((Expr.Super) expr).storage = storage;
+            ((Expr.Super) expr).slot = slot;
+        }
     }
 
     private void resolve(Expr expression) {// 不返回value，调用在resolve中定义的接口函数
@@ -48,44 +190,74 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和in
         }
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private Local resolveLocal(Expr expr, String name) {// 记录对局部变量的引用，位置在layout时写到节点上；全局变量返回null
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {// 找到包含当前variable最近的一个scope
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            Local local = scopes.get(i).locals.get(name);
+            if (local != null) {// 找到包含当前variable最近的一个scope
+                Scope current = scopes.peek();
+                int upvalue = -1;
+                if (current.function != local.scope.function) {//在内层函数中引用，变量要放进cell，由闭包捕获
+                    local.captured = true;
+                    upvalue = addUpvalue(current.function, local);
+                }
+                current.references.add(new Reference(expr, local, upvalue));
+                return local;
             }
         }
         // Not found. Assume it is global.
+        return null;
+    }
+
+    private int addUpvalue(Scope function, Local local) {//返回local在function的upvalue中的下标，中间的各层函数也要依次捕获
+        int index = function.upvalues.indexOf(local);
+        if (index >= 0) return index;
+        Scope enclosing = function.enclosingFunction();
+        if (local.scope.function != enclosing) addUpvalue(enclosing, local);
+        function.upvalues.add(local);
+        return function.upvalues.size() - 1;
     }
 
     private void resolveFunction(Stmt.Function stmt, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;// 暂存当前的FunctionType
+        int enclosingLoopDepth = loopDepth;//break不能跳出函数体
         currentFunction = type;
-        beginScope();
+        loopDepth = 0;
+        beginScope(stmt);
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {//方法的this就在方法自身的scope中，占据slot 0，参数从slot 1开始
+            declare("this", true);
+            stmt.isMethod = true;
+        }
         for (Token param : stmt.params) {
-            declare(param);
+            declare(param, null);
             define(param);
         }
         resolve(stmt.body);
         endScope();
         currentFunction = enclosingFunction;
+        loopDepth = enclosingLoopDepth;
     }
 
-    private void declare(Token name) {
+    private void declare(Token name, Stmt declaration) {// 全局变量不需要记录
         if (scopes.isEmpty())
             return;
-        Map<String, Boolean> scope = scopes.peek();
-        scope.put(name.lexeme, false); // false表示该变量尚未初始化
+        Map<String, Local> locals = scopes.peek().locals;
+        if (locals.containsKey(name.lexeme)) {//重复声明要在declare时检查，define时该变量一定已经在scope中
+            Lox.error(name, "Variable with this name already declared in this scope.");
+        }
+        declare(name.lexeme, false).declaration = declaration;
+    }
+
+    private Local declare(String name, boolean defined) {
+        Local local = new Local(scopes.peek());
+        local.defined = defined;
+        scopes.peek().locals.put(name, local);
+        return local;
     }
 
     private void define(Token name) {
         if (scopes.isEmpty())
             return;
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Variable with this name already declared in this scope.");
-        }
-        scope.put(name.lexeme, true);
+        scopes.peek().locals.get(name.lexeme).defined = true;
     }
 
     /**********************************************
@@ -97,7 +269,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和in
             Lox.error(expr.keyword, "Cannot use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);//向上查找this指代的instance所在的scope
+        resolveLocal(expr, "this");//向上查找this指代的instance所在的scope
         return null;
     }
 
@@ -107,7 +279,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和in
             Lox.error(expr.keyword, "Cannot use 'super' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr, "super");
+        expr.receiver = new This(expr.keyword);//super取得的方法绑定到当前的this
+        resolveLocal(expr.receiver, "this");
         return null;
     }
     
@@ -166,19 +340,29 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和in
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) { // Question:false和Boolean.FALSE有什么区别？
-                                                                                         // 这种情况仅发生在visitVarStmt中已经declare完，resolve
-                                                                                         // initializer时才会发生
+        Local local = scopes.isEmpty() ? null : scopes.peek().locals.get(expr.name.lexeme);
+        if (local != null && !local.defined) { // 这种情况仅发生在visitVarStmt中已经declare完，resolve
+                                               // initializer时才会发生
             Lox.error(expr.name, "Cannot read local variable in its own initializer.");// 在variable没有初始化时调用则报错，但不中断，继续执行
         }
-        resolveLocal(expr, expr.name);
+        Local target = resolveLocal(expr, expr.name.lexeme);
+        if (target == null) {
+            expr.global = interpreter.globals.cell(expr.name.symbol);//全局变量在解析时就绑定到Cell
+        } else if (target.declaration instanceof Stmt.Var) {
+            ((Stmt.Var) target.declaration).read = true;
+        }
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);// 判断要赋的值是否已经初始化
-        resolveLocal(expr, expr.name);// 判断被赋值的variable是否已经被初始化，否则追溯到最近的一个scope
+        Local target = resolveLocal(expr, expr.name.lexeme);// 判断被赋值的variable是否已经被初始化，否则追溯到最近的一个scope
+        if (target == null) {
+            expr.global = interpreter.globals.cell(expr.name.symbol);
+        } else if (target.declaration instanceof Stmt.Var) {
+            expr.target = (Stmt.Var) target.declaration;//赋值不算读取
+        }
         return null;
     }
 
@@ -194,7 +378,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和in
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {// 显然每个function有自己的scope
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -203,7 +387,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和in
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        beginScope(stmt);
         resolve(stmt.statements);
         endScope();
         return null;
@@ -211,7 +395,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和in
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -231,7 +415,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和in
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         resolve(stmt.condition);
+        loopDepth++;
         resolve(stmt.body);
+        loopDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (loopDepth == 0) {
+            Lox.error(stmt.keyword, "Cannot use 'break' outside of a loop.");
+        }
         return null;
     }
 
@@ -257,7 +451,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和in
     public Void visitClassStmt(Stmt.Class stmt) {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);// 和function一样不存在初始化的过程，可以直接调用 Qusetiong：？？？class不用实例化吗？ Ans：这里的调用就是实例化的过程
         if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
             Lox.error(stmt.superclass.name, "A class cannot inherit from itself.");
@@ -266,12 +460,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和in
             currentClass = ClassType.SUBCLASS;
             resolve(stmt.superclass);
         }
-        beginScope();
         if (stmt.superclass != null) {
-            beginScope();//Question: 这里为什么要再开一个scope? this和super用的层级不是一样的吗？Ans: 因为在interperter中此处新建了一个env来储存super，为了保持一致需要新建一个scope
-            scopes.peek().put("super", true);
+            beginScope(stmt);//Question: 这里为什么要再开一个scope? this和super用的层级不是一样的吗？Ans: super只对子类的方法可见，运行时放在调用帧的一个cell中由各个方法捕获
+            declare("super", true);
         }
-        scopes.peek().put("this",Boolean.TRUE);
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) {
@@ -279,7 +471,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {// 此处和in
               }
             resolveFunction(method, declaration);
         }
-        endScope();
         if (stmt.superclass != null) endScope();
         currentClass = enclosingClass;
         return null;
@@ -0,0 +1,99 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+
+//字符串拼接的结果：只记录左右两部分和总长度，拼接本身是O(1)的，循环中反复执行s = s + piece不会每次复制已有的内容
+//打印、比较或求hash时才展开成String，展开的结果缓存下来并释放左右两部分
+//运行时的Lox字符串是String或Rope，两者都是CharSequence
+final class Rope implements CharSequence {
+    private static final int SHORT = 64;//不超过该长度的结果直接拼成String
+
+    private CharSequence left;//展开后为null
+    private CharSequence right;
+    private final int length;
+    private String flat;
+
+    private Rope(CharSequence left, CharSequence right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if (left.length() == 0) return right;
+        if (right.length() == 0) return left;
+        int length = left.length() + right.length();
+        if (length < 0) throw new OutOfMemoryError("String too long.");
+        if (length <= SHORT) return left.toString() + right.toString();
+        if (left instanceof Rope && right.length() <= SHORT) {//逐段追加时把短的片段合并到左侧的最后一段，树中的节点不会比片段多
+            Rope rope = (Rope) left;
+            CharSequence last = rope.right;
+            if (rope.flat == null && last instanceof String && last.length() + right.length() <= SHORT) {
+                return new Rope(rope.left, last.toString() + right.toString(), length);
+            }
+        }
+        return new Rope(left, right, length);
+    }
+
+    //Lox字符串按内容比较：同一个对象直接相等，长度不同时不需要展开
+    //有意不缓存hash来提前判断不相等：为比较而计算hash要扫描全部字符，String.equals在第一个不同的字符处就停止
+    static boolean equal(CharSequence a, CharSequence b) {
+        if (a == b) return true;
+        if (a.length() != b.length()) return false;
+        return a.toString().equals(b.toString());
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) flatten();
+        return flat;
+    }
+
+    //用显式的栈从右向左填充，s = s + piece产生的树深度与拼接次数相同，不能递归展开
+    private void flatten() {
+        char[] chars = new char[length];
+        int end = length;
+        ArrayDeque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(left);
+        pending.push(right);
+        while (!pending.isEmpty()) {
+            CharSequence part = pending.pop();
+            if (part instanceof Rope && ((Rope) part).flat == null) {
+                pending.push(((Rope) part).left);
+                pending.push(((Rope) part).right);
+                continue;
+            }
+            String text = part.toString();
+            end -= text.length();
+            text.getChars(0, text.length(), chars, end);
+        }
+        flat = new String(chars);
+        left = null;
+        right = null;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Rope && equal(this, (Rope) other);
+    }
+
+    @Override
+    public int hashCode() {//与内容相同的String一致
+        return toString().hashCode();
+    }
+}
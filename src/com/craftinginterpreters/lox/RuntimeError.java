@@ -1,14 +1,75 @@
 package com.craftinginterpreters.lox;
 
+//Lox运行时错误，一直传播到Interpreter.interpret或VM.interpret才报告，并且只报告一次
+//Lox调用栈在错误经过时记录：Interpreter在每层Lox调用的catch中加入一帧，VM在创建错误时从CallFrame数组中取出，
+//正常执行时不需要维护任何额外的数据；不记录Java调用栈
 class RuntimeError extends RuntimeException {
     /**
      *
      */
     private static final long serialVersionUID = 1L;
+    private static final int MAX_FRAMES = 64;//更深的调用栈只记录最内层的部分和最外层的调用处
     final Token token;
+    final int line;
+
+    //从内到外经过的Lox调用：被调用的函数名和调用处的行号
+    private final String[] functions = new String[MAX_FRAMES];
+    private final int[] callLines = new int[MAX_FRAMES];
+    private int frameCount = 0;
+    private int omitted = 0;
+    private int outermostLine;//最外层调用在script中的行号
+    String function;//LoxFunction.invoke记录当前执行的函数(尾调用后为最后被调用的函数)，由Interpreter.call与调用处的行号一起加入
 
     RuntimeError(Token token, String message) {
-        super(message);
+        super(message, null, false, false);
         this.token = token;
+        this.line = token.line;
+    }
+
+    RuntimeError(int line, String message) {//VM执行字节码时没有token，只有行号
+        super(message, null, false, false);
+        this.token = null;
+        this.line = line;
+    }
+
+    void addFrame(String function, int callLine) {
+        if (frameCount < MAX_FRAMES) {
+            functions[frameCount] = function;
+            callLines[frameCount] = callLine;
+            frameCount++;
+        } else {
+            omitted++;
+        }
+        outermostLine = callLine;
+        this.function = null;
+    }
+
+    String stackTrace() {//每一帧为该函数中正在执行的行，与clox的格式相同；连续相同的帧(递归)只输出一次
+        StringBuilder trace = new StringBuilder();
+        int current = line;
+        int previous = -1;
+        int repeated = 0;
+        for (int i = 0; i < frameCount; i++) {
+            if (i > 0 && current == previous && functions[i].equals(functions[i - 1])) {
+                repeated++;
+            } else {
+                appendRepeated(trace, repeated);
+                repeated = 0;
+                trace.append("[line ").append(current).append("] in ").append(functions[i]).append("()\n");
+            }
+            previous = current;
+            current = callLines[i];
+        }
+        appendRepeated(trace, repeated);
+        if (omitted > 0) {
+            trace.append("... ").append(omitted).append(" more calls\n");
+            current = outermostLine;
+        }
+        trace.append("[line ").append(current).append("] in script");
+        return trace.toString();
+    }
+
+    private static void appendRepeated(StringBuilder trace, int repeated) {
+        if (repeated > 0) trace.append("... repeated ").append(repeated).append(" more times\n");
     }
-}
\ No newline at end of file
+}
@@ -1,66 +1,138 @@
-
 package com.craftinginterpreters.lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-// import jdk.nashorn.internal.parser.TokenType;
-// import sun.tools.java.Identifier;
-
 import static com.craftinginterpreters.lox.TokenType.*;
 
+//直接扫描char[]：关键字按首字母和长度用switch识别，符号和关键字的lexeme使用预先创建好的字符串，
+//identifier驻留为Symbol，只有第一次出现的名字、string和number需要新建lexeme，数字的值在扫描时直接累加得到，不经过substring和Double.parseDouble
+//从Reader构造时流式扫描：source只是一个缓冲区，按需读入下一块，只保留当前token从start开始的部分
 class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final Reader reader;//为null时source就是全部源码
+    private char[] source;
+    private int length;//source中有效字符的个数
+    private boolean exhausted = false;//reader已读完
+    private Token scanned;//nextToken()扫描出的token
     private int start = 0; //每次匹配的开始位置
     private int current = 0; //当前匹配的偏移
     private int line = 1;
-    private static final Map<String,TokenType> keywords;
+    //内容相同的字符串字面量共用同一个String，比较时可以直接命中==；只在这个Scanner扫描的源码内共享，不进入全局的Symbol表
+    private final Map<String, String> literals = new HashMap<>();
+
+    //lexeme固定的token(符号和关键字)共用同一个字符串，下标为TokenType的ordinal
+    private static final String[] lexemes = new String[TokenType.values().length];
+    //10的整数次幂都能被double精确表示的范围
+    private static final double[] powersOfTen = new double[23];
+    //不超过2^53的整数可以被double精确表示
+    private static final long MAX_EXACT = 1L << 53;
 
     static{
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else", ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
+        fixed(LEFT_PAREN, "("); fixed(RIGHT_PAREN, ")"); fixed(LEFT_BRACE, "{"); fixed(RIGHT_BRACE, "}");
+        fixed(COMMA, ","); fixed(DOT, "."); fixed(MINUS, "-"); fixed(PLUS, "+"); fixed(SEMICOLON, ";");
+        fixed(SLASH, "/"); fixed(STAR, "*"); fixed(COLON, ":");
+        fixed(BANG, "!"); fixed(BANG_EQUAL, "!="); fixed(EQUAL, "="); fixed(EQUAL_EQUAL, "==");
+        fixed(GREATER, ">"); fixed(GREATER_EQUAL, ">="); fixed(LESS, "<"); fixed(LESS_EQUAL, "<=");
+        fixed(AND, "and"); fixed(BREAK, "break"); fixed(CLASS, "class"); fixed(ELSE, "else");
+        fixed(FALSE, "false"); fixed(FOR, "for"); fixed(FUN, "fun"); fixed(IF, "if"); fixed(NIL, "nil");
+        fixed(OR, "or"); fixed(PRINT, "print"); fixed(RETURN, "return"); fixed(SUPER, "super");
+        fixed(THIS, "this"); fixed(TRUE, "true"); fixed(VAR, "var"); fixed(WHILE, "while");
+        fixed(EOF, "");
+
+        double power = 1;
+        for (int i = 0; i < powersOfTen.length; i++) {
+            powersOfTen[i] = power;
+            power *= 10;
+        }
+    }
+
+    private static void fixed(TokenType type, String lexeme) {
+        lexemes[type.ordinal()] = lexeme;
     }
 
+    private static final int BUFFER_SIZE = 8192;
+
     Scanner(String source) {
-        this.source = source;
+        this.reader = null;
+        this.source = source.toCharArray();
+        this.length = this.source.length;
+    }
+
+    Scanner(Reader reader) {
+        this.reader = reader;
+        this.source = new char[BUFFER_SIZE];
+        this.length = 0;
     }
 
     List<Token> scanTokens() {
-        while (!isAtEnd()) {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while (token.type != EOF);
+        return tokens;
+    }
+
+    Token nextToken() {//每次扫描出一个token，Parser按需调用；到达末尾后一直返回EOF
+        scanned = null;
+        while (scanned == null) {
             // We are at the beginning of the next lexeme.
             start = current;
-            scanToken();
+            if (isAtEnd()) {
+                addToken(EOF);
+                break;
+            }
+            scanToken();//空白和注释不产生token
         }
+        return scanned;
+    }
 
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+    void forgetLiterals() {//流式执行时在每条声明之前调用，字面量表不随输入增长；之后相同的字面量只是不再共用String
+        literals.clear();
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
-      }
-    
+        return !available(0);
+    }
+
+    private boolean available(int ahead) {//current之后第ahead个字符是否存在，流式扫描时按需读入
+        while (current + ahead >= length) {
+            if (!fill()) return false;
+        }
+        return true;
+    }
+
+    private boolean fill() {//丢弃start之前已经扫描完的字符，再从reader读入一块；返回false表示没有更多字符
+        if (reader == null || exhausted) return false;
+        if (start > 0) {
+            System.arraycopy(source, start, source, 0, length - start);
+            length -= start;
+            current -= start;
+            start = 0;
+        }
+        if (length == source.length) source = Arrays.copyOf(source, source.length * 2);//当前token比缓冲区还长
+        try {
+            int read = reader.read(source, length, source.length - length);
+            if (read < 0) {
+                exhausted = true;
+                return false;
+            }
+            length += read;
+            return true;
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
     private char advance() {
-        current++;
-        return source.charAt(current - 1);
+        return source[current++];
     }
 
     private void addToken(TokenType type) {
@@ -68,33 +140,33 @@ class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        String text = lexemes[type.ordinal()];
+        if (text == null) text = new String(source, start, current - start);
+        scanned = new Token(type, text, literal, line, null);
     }
 
     private boolean match(char expected) {
-        if(isAtEnd()) return false;
-        if(source.charAt(current) != expected) return false;
+        if (!available(0) || source[current] != expected) return false;
 
         current++;
         return true;
     }
 
     private char peek(){//peek current位置的字符
-        if(isAtEnd()) return '\0';
-        return source.charAt(current);
+        if(!available(0)) return '\0';
+        return source[current];
     }
 
     private char peekNext(){//peek current+1 位置的字符
-        if(current+1>=source.length()) return '\0';
-        return source.charAt(current+1);
+        if(!available(1)) return '\0';
+        return source[current + 1];
     }
 
     private void String() {//处理string的函数
-        while (peek() != '"' && isAtEnd()) {
-            if (peek() == '\n')
+        while (available(0) && source[current] != '"') {
+            if (source[current] == '\n')
                 line++;
-            advance();
+            current++;
         }
 
         if (isAtEnd()) {
@@ -103,50 +175,119 @@ class Scanner {
         }
 
         // 跳出最后一个‘“’
-        advance();
+        current++;
 
-        String value = source.substring(start + 1, current - 1);
+        String value = new String(source, start + 1, current - start - 2);
+        String pooled = literals.putIfAbsent(value, value);
+        if (pooled != null) value = pooled;
         addToken(STRING, value);
     }
 
-    private boolean isDigit(char c){
+    private static boolean isDigit(char c){
         return c>='0'&&c<='9';
     }
 
-    private boolean isAlpha(char c){
+    private static boolean isAlpha(char c){
         return c>='a'&&c<='z'||c>='A'&&c<='Z'||c=='_';
     }
 
-    private boolean isAlphaNumeric(char c){
+    private static boolean isAlphaNumeric(char c){
         return isAlpha(c)||isDigit(c);
     }
 
-    private void number(){//处理数字
-        while(isDigit(peek())) advance();
-        if(peek()=='.') {
-            advance();
-            while(isDigit(peek())) advance();
+    private void number(){//处理数字，整数部分和小数部分的各位数字合在一起累加为一个整数，最后除以10的小数位数次幂
+        long digits = source[start] - '0';
+        boolean exact = true;
+        while (available(0) && isDigit(source[current])) {
+            digits = digits * 10 + (source[current++] - '0');
+            if (digits >= MAX_EXACT) exact = false;//继续扫描，之后按字符串解析
+        }
+        int fraction = 0;
+        if (peek() == '.') {
+            current++;
+            while (available(0) && isDigit(source[current])) {
+                digits = digits * 10 + (source[current++] - '0');
+                fraction++;
+                if (digits >= MAX_EXACT) exact = false;
+            }
+        }
+
+        double value;
+        if (exact && fraction < powersOfTen.length) {//两个精确的double相除只舍入一次，结果与parseDouble相同
+            value = digits / powersOfTen[fraction];
+        } else {//位数太多时才退回到parseDouble
+            value = Double.parseDouble(new String(source, start, current - start));
         }
-        addToken(NUMBER, Double.parseDouble(source.substring(start,current)));
+        addToken(NUMBER, NumberCache.box(value));
     }
 
     private void identifier(){
-        while (isAlphaNumeric(peek()))
-            advance();
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null)
-            type = IDENTIFIER;
-        addToken(type);
+        while (available(0) && isAlphaNumeric(source[current]))
+            current++;
+        TokenType type = keyword();
+        if (type != IDENTIFIER) {
+            addToken(type);
+            return;
+        }
+        Symbol symbol = Symbol.intern(source, start, current - start);//同名的identifier共用同一个Symbol和lexeme
+        scanned = new Token(IDENTIFIER, symbol.name, null, line, symbol);
+    }
+
+    //按首字母(必要时第二个字母)选出唯一可能的关键字，再比较剩余部分
+    private TokenType keyword() {
+        switch (source[start]) {
+            case 'a': return checkKeyword(1, "nd", AND);
+            case 'b': return checkKeyword(1, "reak", BREAK);
+            case 'c': return checkKeyword(1, "lass", CLASS);
+            case 'e': return checkKeyword(1, "lse", ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (source[start + 1]) {
+                        case 'a': return checkKeyword(2, "lse", FALSE);
+                        case 'o': return checkKeyword(2, "r", FOR);
+                        case 'u': return checkKeyword(2, "n", FUN);
+                    }
+                }
+                break;
+            case 'i': return checkKeyword(1, "f", IF);
+            case 'n': return checkKeyword(1, "il", NIL);
+            case 'o': return checkKeyword(1, "r", OR);
+            case 'p': return checkKeyword(1, "rint", PRINT);
+            case 'r': return checkKeyword(1, "eturn", RETURN);
+            case 's': return checkKeyword(1, "uper", SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (source[start + 1]) {
+                        case 'h': return checkKeyword(2, "is", THIS);
+                        case 'r': return checkKeyword(2, "ue", TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(1, "ar", VAR);
+            case 'w': return checkKeyword(1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
+
+    private TokenType checkKeyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (source[start + offset + i] != rest.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
 
     private void comment(){
-        while(peek()!='*'&&peekNext()!='/'){
-            if(peek()=='\n') line++;
+        while(!(peek()=='*'&&peekNext()=='/')&&!isAtEnd()){
+            if(source[current]=='\n') line++;
+            start = ++current;//注释不产生token，流式扫描时不必在缓冲区中保留整段注释
+        }
+        if (isAtEnd()) {
+            Lox.error(line, "Unterminated comment.");
+            return;
         }
         //跳出*/
-        advance();
-        advance();
+        current += 2;
     }
 
     private void scanToken() {
@@ -168,13 +309,11 @@ class Scanner {
             case '=': addToken(match('=') ? EQUAL_EQUAL : EQUAL); break;
             case '<': addToken(match('=') ? LESS_EQUAL : LESS); break;
             case '>': addToken(match('=') ? GREATER_EQUAL : GREATER); break;
-            //逻辑运算
-            case 'o': if(peek()=='r') addToken(OR);break;
-            case 'a':
+            //逻辑运算and和or作为关键字在identifier()中识别
             //注释
             case '/':
                 if(match('/')){
-                    while(peek()!='\n'&&!isAtEnd()) advance(); 
+                    while(available(0) && source[current] != '\n') start = ++current;
                 }
                 else if(match('*')){
                     comment();
@@ -188,21 +327,19 @@ class Scanner {
             case '\n':line++;break;
             //string
             case '"':String();break;
-            default: 
+            default:
             if(isDigit(c)) number();
             else if(isAlpha(c)) identifier();
             else
             Lox.error(line, "Unexcepted character."); break;//每次scan都会遍历全部的长度，每次遇到不规范的字符报一次错
         }
     }
-    
+
     public static void main(String[] args) {
         String source= "nt i = 0;/n i=i+1; //jiuij";
         Scanner s=new Scanner(source);
-        s.scanTokens();
-        for (Token token : s.tokens) {
+        for (Token token : s.scanTokens()) {
             System.out.println(token.toString());
         }
     }
 }
-
@@ -0,0 +1,38 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//实例的隐藏类：记录字段名(Symbol)到fields数组下标的映射，字段按相同顺序加入的实例共享同一个Shape
+//每个类有自己的根Shape，所以Shape相同也意味着类相同，Get节点可以按Shape缓存方法查找的结果
+class Shape {
+    private final Map<Symbol, Integer> offsets;
+    final int size;//字段个数，新字段的下标即为size
+    private Map<Symbol, Shape> transitions = null;//加入某个字段后转换到的Shape
+
+    Shape() {
+        this.offsets = new HashMap<>();
+        this.size = 0;
+    }
+
+    private Shape(Shape parent, Symbol name) {
+        this.offsets = new HashMap<>(parent.offsets);
+        this.offsets.put(name, parent.size);
+        this.size = parent.size + 1;
+    }
+
+    int offsetOf(Symbol name) {// 没有该字段时返回-1
+        Integer offset = offsets.get(name);
+        return offset == null ? -1 : offset;
+    }
+
+    Shape withField(Symbol name) {
+        if (transitions == null) transitions = new HashMap<>();
+        Shape next = transitions.get(name);
+        if (next == null) {
+            next = new Shape(this, name);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
@@ -0,0 +1,37 @@
+package com.craftinginterpreters.lox;
+
+//Binary节点的专用执行路径，节点第一次执行时根据观察到的操作数类型从UNINITIALIZED切换到某个专用版本，
+//之后只检查操作数类型是否仍然符合，不符合时退回GENERIC并且不再重新专用化
+enum Specialization {
+    UNINITIALIZED,
+    NUMBER_ADD,
+    NUMBER_SUBTRACT,
+    NUMBER_MULTIPLY,
+    NUMBER_DIVIDE,
+    NUMBER_GREATER,
+    NUMBER_GREATER_EQUAL,
+    NUMBER_LESS,
+    NUMBER_LESS_EQUAL,
+    STRING_CONCAT,
+    GENERIC;
+
+    static Specialization of(TokenType operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            switch (operator) {
+                case PLUS: return NUMBER_ADD;
+                case MINUS: return NUMBER_SUBTRACT;
+                case STAR: return NUMBER_MULTIPLY;
+                case SLASH: return NUMBER_DIVIDE;
+                case GREATER: return NUMBER_GREATER;
+                case GREATER_EQUAL: return NUMBER_GREATER_EQUAL;
+                case LESS: return NUMBER_LESS;
+                case LESS_EQUAL: return NUMBER_LESS_EQUAL;
+                default: return GENERIC;
+            }
+        }
+        if (operator == TokenType.PLUS && left instanceof CharSequence && right instanceof CharSequence) {
+            return STRING_CONCAT;
+        }
+        return GENERIC;//==和!=以及类型错误的情况都走通用路径
+    }
+}
@@ -20,6 +20,8 @@ abstract class Stmt {
 
         R visitReturnStmt(Return stmt);
 
+        R visitBreakStmt(Break stmt);
+
         R visitVarStmt(Var stmt);
     }
 
@@ -38,6 +40,11 @@ abstract class Stmt {
         final Token name;
         final Expr.Variable superclass;
         final List<Stmt.Function> methods;
+
+        // Resolution.
+        int slot = -1;
+        boolean captured;
+        int superSlot;
     }
 
     static class If extends Stmt {
@@ -72,6 +79,15 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+
+        // Resolution.
+        int slot = -1;
+        boolean captured;
+        int slotCount;
+        boolean isMethod;
+        boolean[] paramCells;
+        boolean[] upvalueIsLocal;
+        int[] upvalueIndexes;
     }
 
     static class While extends Stmt {
@@ -143,6 +159,19 @@ abstract class Stmt {
         final Expr value;
     }
 
+    static class Break extends Stmt {
+        Break(Token keyword) {
+            this.keyword = keyword;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitBreakStmt(this);
+        }
+
+        final Token keyword;
+    }
+
     static class Var extends Stmt {
         Var(Token name, Expr initializer) {
             this.name = name;
@@ -156,6 +185,11 @@ abstract class Stmt {
 
         final Token name;
         final Expr initializer;
+
+        // Resolution.
+        int slot = -1;
+        boolean captured;
+        boolean read;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
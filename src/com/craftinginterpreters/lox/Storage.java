@@ -0,0 +1,9 @@
+package com.craftinginterpreters.lox;
+
+//resolver确定的变量存放位置，写在Variable/Assign/This/Super节点上
+enum Storage {
+    GLOBAL,//Globals中的Cell
+    LOCAL,//当前调用帧的slot
+    CELL,//当前调用帧的slot中存放的UpvalueCell，变量被内层函数捕获
+    UPVALUE//当前函数闭包捕获的第slot个UpvalueCell
+}
@@ -0,0 +1,115 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.ref.WeakReference;
+
+//标识符在扫描时被驻留为唯一的Symbol，同名的Symbol只有一个，可以直接用==比较，hash在创建时算好
+//运行时以名字为key的结构(Shape、方法表、全局变量)都以Symbol为key，查找时不再对字符串求hash和逐字符比较
+//符号表为全局共享，解释器是单线程的，不做同步
+//表中只弱引用Symbol：AST、Shape、方法表和全局变量不再引用的名字可以被回收，--stream、REPL和bench反复扫描时表不会一直增长
+//已回收的名字再次出现时新建Symbol，此时已经没有对象持有旧的Symbol，==比较仍然成立
+final class Symbol {
+    final String name;
+    private final int hash;
+
+    private static final int MIN_CAPACITY = 1024;
+    private static Entry[] table = new Entry[MIN_CAPACITY];//开放寻址，容量为2的幂；被回收的Symbol留在原处，重建时清除
+    private static int count = 0;//占用的slot数，包括已被回收的，决定何时重建
+
+    private static final class Entry extends WeakReference<Symbol> {
+        final int hash;//Symbol被回收后重建时仍然需要
+
+        Entry(Symbol symbol) {
+            super(symbol);
+            this.hash = symbol.hash;
+        }
+    }
+
+    private Symbol(String name, int hash) {
+        this.name = name;
+        this.hash = hash;
+    }
+
+    static Symbol intern(String name) {
+        int hash = name.hashCode();
+        int mask = table.length - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            Entry entry = table[i];
+            if (entry == null) return add(name, hash, i);
+            if (entry.hash != hash) continue;
+            Symbol symbol = entry.get();
+            if (symbol != null && symbol.name.equals(name)) return symbol;
+        }
+    }
+
+    //Scanner直接从源码缓冲区中驻留，已存在的名字不会新建String
+    static Symbol intern(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[start + i];//与String.hashCode相同
+        }
+        int mask = table.length - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            Entry entry = table[i];
+            if (entry == null) return add(new String(chars, start, length), hash, i);
+            if (entry.hash != hash) continue;
+            Symbol symbol = entry.get();
+            if (symbol != null && symbol.matches(chars, start, length)) return symbol;
+        }
+    }
+
+    private boolean matches(char[] chars, int start, int length) {
+        if (name.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[start + i]) return false;
+        }
+        return true;
+    }
+
+    private static Symbol add(String name, int hash, int index) {
+        Symbol symbol = new Symbol(name, hash);
+        table[index] = new Entry(symbol);
+        count++;
+        if (count * 2 > table.length) rebuild();//装载因子不超过0.5
+        return symbol;
+    }
+
+    //只搬移仍然存活的Symbol，容量按存活的数量重新选择，大部分名字被回收后表也会缩小
+    private static void rebuild() {
+        Entry[] old = table;
+        int live = 0;
+        for (Entry entry : old) {
+            if (entry != null && entry.get() != null) live++;
+        }
+        int capacity = MIN_CAPACITY;
+        while (live * 4 > capacity) capacity *= 2;//重建后装载因子不超过0.25
+        table = new Entry[capacity];
+        count = 0;
+        int mask = capacity - 1;
+        for (Entry entry : old) {
+            if (entry == null || entry.get() == null) continue;
+            int i = spread(entry.hash) & mask;
+            while (table[i] != null) i = (i + 1) & mask;
+            table[i] = entry;
+            count++;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {//同名的Symbol唯一
+        return this == other;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+//return f(x);中尚未执行的调用，作为返回值交给调用者所在的LoxFunction.invoke循环执行
+class TailCall {
+    final LoxFunction function;
+    final LoxInstance receiver;//obj.method(x)形式的调用为obj，否则使用function自身绑定的instance
+    final List<Object> arguments;
+    final int line;//调用处的行号，供profiler使用
+
+    TailCall(LoxFunction function, LoxInstance receiver, List<Object> arguments, int line) {
+        this.function = function;
+        this.receiver = receiver;
+        this.arguments = arguments;
+        this.line = line;
+    }
+}
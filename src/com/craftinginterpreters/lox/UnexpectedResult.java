@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox;
+
+//evaluateNumber猜测结果是数字但实际不是时抛出，带着已经算出的值让调用者退回通用路径，不会重复执行有副作用的子表达式
+class UnexpectedResult extends RuntimeException {
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L;
+    final Object value;
+
+    UnexpectedResult(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
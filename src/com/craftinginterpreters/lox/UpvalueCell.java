@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+//被闭包捕获的局部变量，声明该变量的函数和捕获它的闭包共享同一个cell
+class UpvalueCell {
+    Object value;
+
+    UpvalueCell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,630 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//基于栈的字节码虚拟机，执行Compiler编译出的Chunk，语义和Interpreter保持一致
+class VM {
+    /********************************************* Runtime Objects **************************************************/
+
+    //编译好的函数，不带upvalue，运行时由CLOSURE指令包装成Closure
+    static class Function {
+        final String name;
+        final int arity;
+        int upvalueCount = 0;
+        final Chunk chunk = new Chunk();
+
+        Function(String name, int arity) {
+            this.name = name;
+            this.arity = arity;
+        }
+
+        @Override
+        public String toString() {
+            if (name == null) return "<script>";
+            return "<fn " + name + ">";
+        }
+    }
+
+    static class Closure {
+        final Function function;
+        final Upvalue[] upvalues;
+
+        Closure(Function function) {
+            this.function = function;
+            this.upvalues = new Upvalue[function.upvalueCount];
+        }
+
+        @Override
+        public String toString() {
+            return function.toString();
+        }
+    }
+
+    //被闭包捕获的变量，变量仍在栈上时location为其栈下标，离开作用域后值被搬到closed中
+    static class Upvalue {
+        int location;
+        Object closed;
+        Upvalue next;//按location从大到小排列的open upvalue链表
+
+        Upvalue(int location) {
+            this.location = location;
+        }
+    }
+
+    static class Klass {
+        final String name;
+        final Map<Symbol, Closure> methods = new HashMap<>();//继承时直接把超类的方法复制过来
+        Closure initializer;
+        final Shape rootShape = new Shape();
+
+        Klass(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return "<class " + name + " >";
+        }
+    }
+
+    static class Instance {
+        final Klass klass;
+        Shape shape;//和LoxInstance一样用Shape加数组存放字段
+        Object[] fields = EMPTY_FIELDS;
+
+        Instance(Klass klass) {
+            this.klass = klass;
+            this.shape = klass.rootShape;
+        }
+
+        void set(Symbol name, Object value) {
+            int offset = shape.offsetOf(name);
+            if (offset < 0) {
+                shape = shape.withField(name);
+                offset = shape.size - 1;
+                if (shape.size > fields.length) fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+            }
+            fields[offset] = value;
+        }
+
+        @Override
+        public String toString() {
+            return "<instance of class " + klass.name + " >";
+        }
+    }
+
+    static class BoundMethod {
+        final Object receiver;
+        final Closure method;
+
+        BoundMethod(Object receiver, Closure method) {
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+
+    abstract static class Native {
+        final int arity;
+
+        Native(int arity) {
+            this.arity = arity;
+        }
+
+        abstract Object call(Object[] stack, int args);//参数为stack[args..args+arity)
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    private static final Object[] EMPTY_FIELDS = new Object[0];
+
+    private static class CallFrame {
+        Closure closure;
+        int ip;
+        int base;//slot 0在栈上的下标，函数为其自身，方法为this
+    }
+
+    /********************************************* VM State **************************************************/
+
+    final Globals globals = new Globals();
+    OutputSink output = OutputSink.STDOUT;//print的输出目标，与Interpreter相同
+    Profiler profiler = null;//--profile时记录Lox调用的影子栈，script的frame不记录
+    private Object[] stack = new Object[1024];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private Upvalue openUpvalues = null;
+
+    VM() {
+        globals.define("clock", new Native(0) {
+            @Override
+            Object call(Object[] stack, int args) {
+                return (double) System.currentTimeMillis() / 1000.0;
+            }
+        });
+    }
+
+    //外部调用接口
+    void interpret(List<Stmt> statements) {
+        Function script = new Compiler(this).compile(statements);
+        if (Lox.hadError) return;
+
+        Closure closure = new Closure(script);
+        push(closure);
+        try {
+            call(closure, 0);
+            run();
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+            resetStack();
+        }
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, 0, sp, null);
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+        if (profiler != null) profiler.reset();
+    }
+
+    private void push(Object value) {
+        if (sp == stack.length) stack = Arrays.copyOf(stack, sp * 2);//upvalue只记录下标，扩容不影响
+        stack[sp++] = value;
+    }
+
+    private Object pop() {//不清空弹出的slot，函数返回时再统一清空，避免每条指令多一次写操作
+        return stack[--sp];
+    }
+
+    private Object peek(int distance) {
+        return stack[sp - 1 - distance];
+    }
+
+    private RuntimeError error(String message) {//CallFrame数组就是Lox调用栈，出错时从中取出各层的函数名和调用处的行号
+        CallFrame frame = frames[frameCount - 1];
+        RuntimeError error = new RuntimeError(frame.closure.function.chunk.lines[frame.ip - 1], message);
+        for (int i = frameCount - 1; i > 0; i--) {//frame 0是script
+            CallFrame caller = frames[i - 1];
+            error.addFrame(frames[i].closure.function.name, caller.closure.function.chunk.lines[caller.ip - 1]);
+        }
+        return error;
+    }
+
+    /********************************************* Calls **************************************************/
+
+    private void callValue(Object callee, int argCount) {
+        if (callee instanceof Closure) {
+            call((Closure) callee, argCount);
+        } else if (callee instanceof BoundMethod) {
+            BoundMethod bound = (BoundMethod) callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+        } else if (callee instanceof Klass) {
+            Klass klass = (Klass) callee;
+            stack[sp - argCount - 1] = new Instance(klass);
+            if (klass.initializer != null) {
+                call(klass.initializer, argCount, klass.name, false);
+            } else if (argCount != 0) {
+                throw error("Expected 0 arguments but got " + argCount + ".");
+            }
+        } else if (callee instanceof Native) {
+            Native function = (Native) callee;
+            if (argCount != function.arity) {
+                throw error("Expected " + function.arity + " arguments but got " + argCount + ".");
+            }
+            if (profiler != null) profiler.enter(function.toString(), callLine());
+            Object result = function.call(stack, sp - argCount);
+            if (profiler != null) profiler.exit();
+            sp -= argCount + 1;
+            Arrays.fill(stack, sp, sp + argCount + 1, null);
+            push(result);
+        } else {
+            throw error("Can only call functions and classes.");
+        }
+    }
+
+    private void call(Closure closure, int argCount) {
+        call(closure, argCount, closure.function.name, true);
+    }
+
+    //name为profiler中的帧名，调用类时为类名；和Interpreter一样，调用类不做尾调用
+    private void call(Closure closure, int argCount, String name, boolean tailAllowed) {
+        if (argCount != closure.function.arity) {
+            throw error("Expected " + closure.function.arity + " arguments but got " + argCount + ".");
+        }
+        CallFrame caller = frameCount > 1 ? frames[frameCount - 1] : null;//script的frame不做尾调用
+        if (tailAllowed && caller != null && caller.closure.function.chunk.code[caller.ip] == OpCode.RETURN) {//调用之后紧跟RETURN即尾调用，复用调用者的frame，调用栈不增长
+            closeUpvalues(caller.base);
+            if (profiler != null) profiler.replace(name, callLine());
+            int start = sp - argCount - 1;
+            System.arraycopy(stack, start, stack, caller.base, argCount + 1);//被调用者和参数移到调用者的slot 0开始处
+            int top = caller.base + argCount + 1;
+            Arrays.fill(stack, top, sp, null);
+            sp = top;
+            caller.closure = closure;
+            caller.ip = 0;
+            return;
+        }
+        if (frameCount > Lox.maxCallDepth) throw error("Stack overflow.");//frame 0是script，不计入调用深度，和Interpreter共用上限
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) frame = frames[frameCount] = new CallFrame();//CallFrame对象重复使用
+        if (profiler != null && frameCount > 0) profiler.enter(name, callLine());
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+    }
+
+    private int callLine() {//当前调用所在的行号，调用者的ip已经指向调用指令之后
+        CallFrame caller = frames[frameCount - 1];
+        return caller.closure.function.chunk.lines[caller.ip - 1];
+    }
+
+    private void invoke(Symbol name, int argCount) {
+        Object receiver = peek(argCount);
+        if (!(receiver instanceof Instance)) {
+            throw error("Only instances have properties.");
+        }
+        Instance instance = (Instance) receiver;
+        int offset = instance.shape.offsetOf(name);
+        if (offset >= 0) {//字段优先于方法
+            Object value = instance.fields[offset];
+            stack[sp - argCount - 1] = value;
+            callValue(value, argCount);
+            return;
+        }
+        invokeFromClass(instance.klass, name, argCount);
+    }
+
+    private void invokeFromClass(Klass klass, Symbol name, int argCount) {
+        Closure method = klass.methods.get(name);
+        if (method == null) {
+            throw error("Undefined property '" + name + "'.");
+        }
+        call(method, argCount);
+    }
+
+    private BoundMethod bindMethod(Klass klass, Object receiver, Symbol name) {
+        Closure method = klass.methods.get(name);
+        if (method == null) {
+            throw error("Undefined property '" + name + "'.");
+        }
+        return new BoundMethod(receiver, method);
+    }
+
+    private Upvalue captureUpvalue(int location) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.location > location) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.location == location) return upvalue;
+
+        Upvalue created = new Upvalue(location);
+        created.next = upvalue;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {//把栈上下标>=last的变量搬进upvalue
+        while (openUpvalues != null && openUpvalues.location >= last) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.location];
+            upvalue.location = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    /********************************************* Execution **************************************************/
+
+    private void checkNumberOperands(String message) {
+        if (!(peek(0) instanceof Double) || !(peek(1) instanceof Double)) {
+            throw error(message);
+        }
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constantPool;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        for (;;) {
+            byte instruction = code[ip++];
+            switch (instruction) {
+                case OpCode.CONSTANT:
+                    push(constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+                    ip += 2;
+                    break;
+                case OpCode.NIL: push(null); break;
+                case OpCode.TRUE: push(Boolean.TRUE); break;
+                case OpCode.FALSE: push(Boolean.FALSE); break;
+                case OpCode.POP: pop(); break;
+                case OpCode.GET_LOCAL:
+                    push(stack[base + (code[ip++] & 0xff)]);
+                    break;
+                case OpCode.SET_LOCAL:
+                    stack[base + (code[ip++] & 0xff)] = peek(0);//赋值表达式的值仍然留在栈上
+                    break;
+                case OpCode.GET_GLOBAL: {
+                    Globals.Cell cell = (Globals.Cell) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Object value = cell.value;
+                    if (value == null) {
+                        frame.ip = ip;
+                        throw error((cell.defined ? "Unassigned" : "Undefined") + " variable '" + cell.name + "'.");
+                    }
+                    push(value);
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    Globals.Cell cell = (Globals.Cell) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    cell.define(pop());
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    Globals.Cell cell = (Globals.Cell) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!cell.defined) {
+                        frame.ip = ip;
+                        throw error("Undefined variable '" + cell.name + "'.");
+                    }
+                    cell.value = peek(0);
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    push(upvalue.location >= 0 ? stack[upvalue.location] : upvalue.closed);
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.location >= 0) {
+                        stack[upvalue.location] = peek(0);
+                    } else {
+                        upvalue.closed = peek(0);
+                    }
+                    break;
+                }
+                case OpCode.GET_PROPERTY: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    frame.ip = ip;
+                    if (!(peek(0) instanceof Instance)) {
+                        throw error("Only instances have properties.");
+                    }
+                    Instance instance = (Instance) peek(0);
+                    int offset = instance.shape.offsetOf(name);
+                    if (offset >= 0) {
+                        stack[sp - 1] = instance.fields[offset];
+                        break;
+                    }
+                    stack[sp - 1] = bindMethod(instance.klass, instance, name);
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!(peek(1) instanceof Instance)) {
+                        frame.ip = ip;
+                        throw error("Only instances have properties.");
+                    }
+                    Object value = pop();
+                    ((Instance) pop()).set(name, value);
+                    push(value);
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    frame.ip = ip;
+                    Klass superclass = (Klass) pop();
+                    stack[sp - 1] = bindMethod(superclass, peek(0), name);
+                    break;
+                }
+                case OpCode.EQUAL: {
+                    Object b = pop();
+                    stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object b = pop();
+                    stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case OpCode.GREATER:
+                    frame.ip = ip;
+                    checkNumberOperands("Operands must be numbers.");
+                    stack[sp - 2] = (double) stack[sp - 2] > (double) pop();
+                    break;
+                case OpCode.GREATER_EQUAL:
+                    frame.ip = ip;
+                    checkNumberOperands("Operands must be numbers.");
+                    stack[sp - 2] = (double) stack[sp - 2] >= (double) pop();
+                    break;
+                case OpCode.LESS:
+                    frame.ip = ip;
+                    checkNumberOperands("Operands must be numbers.");
+                    stack[sp - 2] = (double) stack[sp - 2] < (double) pop();
+                    break;
+                case OpCode.LESS_EQUAL:
+                    frame.ip = ip;
+                    checkNumberOperands("Operands must be numbers.");
+                    stack[sp - 2] = (double) stack[sp - 2] <= (double) pop();
+                    break;
+                case OpCode.ADD: {
+                    Object b = peek(0);
+                    Object a = peek(1);
+                    if (a instanceof Double && b instanceof Double) {
+                        pop();
+                        stack[sp - 1] = NumberCache.box((double) a + (double) b);
+                    } else if (a instanceof CharSequence && b instanceof CharSequence) {
+                        pop();
+                        stack[sp - 1] = Rope.concat((CharSequence) a, (CharSequence) b);
+                    } else {
+                        frame.ip = ip;
+                        throw error("Operands must be two numbers or two strings.");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT:
+                    frame.ip = ip;
+                    checkNumberOperands("Operands must be numbers.");
+                    stack[sp - 2] = NumberCache.box((double) stack[sp - 2] - (double) pop());
+                    break;
+                case OpCode.MULTIPLY:
+                    frame.ip = ip;
+                    checkNumberOperands("Operands must be numbers.");
+                    stack[sp - 2] = NumberCache.box((double) stack[sp - 2] * (double) pop());
+                    break;
+                case OpCode.DIVIDE:
+                    frame.ip = ip;
+                    checkNumberOperands("Operands must be numbers.");
+                    stack[sp - 2] = NumberCache.box((double) stack[sp - 2] / (double) pop());
+                    break;
+                case OpCode.NOT:
+                    stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE:
+                    if (!(peek(0) instanceof Double)) {
+                        frame.ip = ip;
+                        throw error("Operand must be a number.");
+                    }
+                    stack[sp - 1] = NumberCache.box(-(double) stack[sp - 1]);
+                    break;
+                case OpCode.PRINT:
+                    output.println(Interpreter.stringify(pop()));
+                    break;
+                case OpCode.JUMP:
+                    ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (Interpreter.isTruthy(peek(0))) {
+                        ip += 2;
+                    } else {
+                        ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                    }
+                    break;
+                case OpCode.LOOP:
+                    ip -= (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) - 2;
+                    break;
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    callValue(peek(argCount), argCount);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constantPool;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.INVOKE: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    int argCount = code[ip + 2] & 0xff;
+                    frame.ip = ip + 3;
+                    invoke(name, argCount);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constantPool;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.SUPER_INVOKE: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    int argCount = code[ip + 2] & 0xff;
+                    frame.ip = ip + 3;
+                    Klass superclass = (Klass) pop();
+                    invokeFromClass(superclass, name, argCount);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constantPool;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    Function function = (Function) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Closure closure = new Closure(function);
+                    for (int i = 0; i < function.upvalueCount; i++) {
+                        boolean isLocal = code[ip++] != 0;
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                    }
+                    push(closure);
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    pop();
+                    break;
+                case OpCode.RETURN: {
+                    Object result = pop();
+                    closeUpvalues(base);
+                    frameCount--;
+                    if (profiler != null && frameCount > 0) profiler.exit();
+                    Arrays.fill(stack, base, sp, null);
+                    sp = base;
+                    if (frameCount == 0) return;//script执行完毕
+
+                    push(result);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constantPool;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.CLASS:
+                    push(new Klass((String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]));
+                    ip += 2;
+                    break;
+                case OpCode.INHERIT: {
+                    if (!(peek(1) instanceof Klass)) {
+                        frame.ip = ip;
+                        throw error("Superclass must be a class.");
+                    }
+                    Klass superclass = (Klass) peek(1);
+                    Klass subclass = (Klass) pop();
+                    subclass.methods.putAll(superclass.methods);//子类之后定义的同名方法会覆盖这里复制的方法
+                    subclass.initializer = superclass.initializer;
+                    break;
+                }
+                case OpCode.METHOD: {
+                    Symbol name = (Symbol) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Closure method = (Closure) pop();
+                    Klass klass = (Klass) peek(0);
+                    klass.methods.put(name, method);
+                    if (name == LoxClass.INIT) klass.initializer = method;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + instruction);
+            }
+        }
+    }
+}
@@ -15,31 +15,32 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(//Expr AST的节点
-            "Assign   : Token name, Expr value",
+            "Assign   : Token name, Expr value | Storage storage = Storage.GLOBAL, int slot, Globals.Cell global, Stmt.Var target",//storage和slot为resolver解析出的变量位置，global为绑定的全局变量Cell，target为被赋值局部变量的声明
             "Call     : Expr callee, Token paren, List<Expr> arguments",
-            "This     : Token keyword",//用以指代当前的instance
-            "Super    : Token keyword, Token method",//和this不同，super指代的是一个抽象的类没有实际的fields，只能被调用method
-            "Get      : Expr object, Token name",
-            "Set      : Expr object, Token name, Expr value",
+            "This     : Token keyword | Storage storage = Storage.LOCAL, int slot",//用以指代当前的instance
+            "Super    : Token keyword, Token method | Storage storage = Storage.UPVALUE, int slot, This receiver | LoxClass cachedClass, LoxFunction cachedMethod",//和this不同，super指代的是一个抽象的类没有实际的fields，只能被调用method
+            "Get      : Expr object, Token name | | Shape shape, int offset, LoxFunction method",//inline cache: 上次见到的Shape及其字段下标，offset为-1时缓存的是方法
+            "Set      : Expr object, Token name, Expr value | | Shape shape, Shape transition, int offset",//inline cache: 新增字段时transition为转换后的Shape
             "Logic    : Expr left, Token operator, Expr right",
-            "Binary   : Expr left, Token operator, Expr right",
+            "Binary   : Expr left, Token operator, Expr right | | Specialization specialization = Specialization.UNINITIALIZED",//根据运行时观察到的操作数类型选择的执行路径
             "Grouping : Expr expression", 
             "Literal  : Object value", 
             "Unary    : Token operator, Expr right",
-            "Variable : Token name"//变量
+            "Variable : Token name | Storage storage = Storage.GLOBAL, int slot, Globals.Cell global"//变量
         ));
         
         defineAst(outputDir, "Stmt", Arrays.asList(
-            "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+            "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods | int slot = -1, boolean captured, int superSlot",//superSlot为存放super的cell在调用帧中的位置
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
             //"For        : Stmt initializer, Expr condition, Expr increment, Stmt body",
-            "Function   : Token name, List<Token> params, List<Stmt> body",
+            "Function   : Token name, List<Token> params, List<Stmt> body | int slot = -1, boolean captured, int slotCount, boolean isMethod, boolean[] paramCells, boolean[] upvalueIsLocal, int[] upvalueIndexes",//slot为函数名所在的位置，slotCount为调用帧的大小，isMethod时slot 0为this，upvalue描述创建闭包时从哪里取得被捕获变量的cell
             "While      : Expr condition, Stmt body",
-            "Block      : List<Stmt> statements",
+            "Block      : List<Stmt> statements",//block中的变量放在所在函数的调用帧中
             "Expression : Expr expression",
             "Print      : Expr expression",
             "Return     : Token keyword, Expr value",
-            "Var        : Token name, Expr initializer"//变量的声明节点
+            "Break      : Token keyword",
+            "Var        : Token name, Expr initializer | int slot = -1, boolean captured, boolean read"//变量的声明节点，slot为-1时表示全局变量，captured时调用帧中存放的是cell，read表示该局部变量是否被读取过
         ));
     }
 
@@ -60,58 +61,83 @@ public class GenerateAst {
         for (String type : types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim(); 
+            writer.println();
             defineType(writer, baseName, className, fields);
         }
 
         // The base accept() method.
         writer.println();
-        writer.println("  abstract <R> R accept(Visitor<R> visitor);");
+        writer.println("    abstract <R> R accept(Visitor<R> visitor);");
 
         writer.println("}");
 
         writer.close();
     }
     
-    //定义不同type的类
+    //定义不同type的类，第一个"|"之后是resolver写入的可变字段，第二个"|"之后是执行时填入的缓存，都不出现在构造函数中
     private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
-        writer.println("  static class " + className + " extends " + baseName + " {");
+        String[] parts = fieldList.split("\\|");
+        String[] fields = parts[0].trim().split(", ");
+        String[] mutableFields = fieldsOf(parts, 1);
+        String[] cacheFields = fieldsOf(parts, 2);
+
+        writer.println("    static class " + className + " extends " + baseName + " {");
 
         // Constructor.
-        writer.println("    " + className + "(" + fieldList + ") {");
+        writer.println("        " + className + "(" + parts[0].trim() + ") {");
 
         // Store parameters in fields.
-        String[] fields = fieldList.split(", ");
         for (String field : fields) {
             String name = field.split(" ")[1];
-            writer.println("      this." + name + " = " + name + ";");
+            writer.println("            this." + name + " = " + name + ";");
         }
-        writer.println("    }");
+        writer.println("        }");
         
         // Visitor pattern.
         writer.println();
-        writer.println("    @Override");
-        writer.println("    <R> R accept(Visitor<R> visitor) {");
-        writer.println("      return visitor.visit" + className + baseName + "(this);");
-        writer.println("    }");
+        writer.println("        @Override");
+        writer.println("        <R> R accept(Visitor<R> visitor) {");
+        writer.println("            return visitor.visit" + className + baseName + "(this);");
+        writer.println("        }");
 
         // Fields.
         writer.println();
         for (String field : fields) {
-            writer.println("    final " + field + ";");
+            writer.println("        final " + field + ";");
+        }
+        if (mutableFields.length > 0) {
+            writer.println();
+            writer.println("        // Resolution.");
+            for (String field : mutableFields) {
+                writer.println("        " + field + ";");
+            }
+        }
+        if (cacheFields.length > 0) {
+            writer.println();
+            writer.println("        // Runtime cache.");
+            for (String field : cacheFields) {
+                writer.println("        " + field + ";");
+            }
         }
 
-        writer.println("  }");
+        writer.println("    }");
+    }
+
+    private static String[] fieldsOf(String[] parts, int index) {
+        if (parts.length <= index || parts[index].trim().isEmpty()) return new String[0];
+        return parts[index].trim().split(", ");
     }
 
     //定义vistor接口，均为抽象类，具体实现在之后的implement的类中
     private static void defineVisitor(PrintWriter writer, String baseName, List<String> types) {
-        writer.println("  interface Visitor<R> {");
+        writer.println("    interface Visitor<R> {");
 
-        for (String type : types) {
-            String typeName = type.split(":")[0].trim();
-            writer.println("    R visit" + typeName + baseName + "(" + typeName + " " + baseName.toLowerCase() + ");");
+        for (int i = 0; i < types.size(); i++) {
+            String typeName = types.get(i).split(":")[0].trim();
+            if (i > 0) writer.println();
+            writer.println("        R visit" + typeName + baseName + "(" + typeName + " " + baseName.toLowerCase() + ");");
         }
 
-        writer.println("  }");
+        writer.println("    }");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,134 @@
+package com.craftinginterpreters.tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+//Interpreter与VM的一致性测试：目录中的每个.lox程序分别用解释器、--vm、--no-optimize和--stream运行，
+//stdout、stderr和退出码都要与程序中注释给出的期望相同
+//    // expect: <stdout中的一行>
+//    // stderr: <stderr中的一行>
+//    // exit: <退出码>，省略时为0
+public class RunTests {
+    private static final List<List<String>> MODES = Arrays.asList(
+        Arrays.asList(),
+        Arrays.asList("--vm"),
+        Arrays.asList("--no-optimize"),
+        Arrays.asList("--stream")
+    );
+    private static final Pattern EXPECTATION = Pattern.compile("// (expect|stderr|exit): (.*)$");
+    private static final long TIMEOUT_SECONDS = 60;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: run_tests <classpath> <test directory>");
+            System.exit(64);
+        }
+        String classpath = args[0];
+        List<Path> tests;
+        try (Stream<Path> files = Files.list(Paths.get(args[1]))) {
+            tests = files.filter(file -> file.toString().endsWith(".lox")).sorted().collect(Collectors.toList());
+        }
+
+        //每次运行都是一个新的JVM，并行执行
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<Future<String>> results = new ArrayList<>();
+        for (Path test : tests) {
+            for (List<String> mode : MODES) {
+                results.add(pool.submit(() -> run(classpath, test, mode)));
+            }
+        }
+        int failed = 0;
+        for (Future<String> result : results) {
+            String failure = result.get();
+            if (failure != null) {
+                failed++;
+                System.err.println(failure);
+            }
+        }
+        pool.shutdown();
+
+        System.out.println((results.size() - failed) + " passed, " + failed + " failed ("
+            + tests.size() + " tests x " + MODES.size() + " modes)");
+        if (failed > 0) System.exit(1);
+    }
+
+    //通过时返回null，否则返回失败的原因
+    private static String run(String classpath, Path test, List<String> mode) throws IOException, InterruptedException {
+        List<String> expectedOut = new ArrayList<>();
+        List<String> expectedErr = new ArrayList<>();
+        int expectedExit = 0;
+        for (String line : Files.readAllLines(test, StandardCharsets.UTF_8)) {
+            Matcher matcher = EXPECTATION.matcher(line);
+            if (!matcher.find()) continue;
+            switch (matcher.group(1)) {
+                case "expect": expectedOut.add(matcher.group(2)); break;
+                case "stderr": expectedErr.add(matcher.group(2)); break;
+                default: expectedExit = Integer.parseInt(matcher.group(2).trim()); break;
+            }
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-XX:TieredStopAtLevel=1");//测试程序都很短，只用C1可以更快地启动
+        command.add("-cp");
+        command.add(classpath);
+        command.add("com.craftinginterpreters.lox.Lox");
+        command.addAll(mode);
+        command.add(test.toString());
+
+        //输出写入临时文件，避免其中一个管道写满时子进程阻塞
+        File out = File.createTempFile("lox-test", ".out");
+        File err = File.createTempFile("lox-test", ".err");
+        try {
+            Process process = new ProcessBuilder(command).redirectOutput(out).redirectError(err).start();
+            String name = test.getFileName() + (mode.isEmpty() ? "" : " " + String.join(" ", mode));
+            if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return "FAIL " + name + ": timed out";
+            }
+            String failure = compare("stdout", expectedOut, lines(out));
+            if (failure == null) failure = compare("stderr", expectedErr, lines(err));
+            if (failure == null && process.exitValue() != expectedExit) {
+                failure = "exit code " + process.exitValue() + ", expected " + expectedExit;
+            }
+            return failure == null ? null : "FAIL " + name + ": " + failure;
+        } finally {
+            out.delete();
+            err.delete();
+        }
+    }
+
+    private static List<String> lines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            lines.add(line.endsWith("\r") ? line.substring(0, line.length() - 1) : line);
+        }
+        return lines;
+    }
+
+    private static String compare(String stream, List<String> expected, List<String> actual) {
+        for (int i = 0; i < Math.max(expected.size(), actual.size()); i++) {
+            String want = i < expected.size() ? expected.get(i) : "<end>";
+            String got = i < actual.size() ? actual.get(i) : "<end>";
+            if (!want.equals(got)) {
+                return stream + " line " + (i + 1) + ": expected '" + want + "', got '" + got + "'";
+            }
+        }
+        return null;
+    }
+}